@@ -0,0 +1,26 @@
+package jamsesso.meshmap;
+
+import java.io.Serializable;
+
+/**
+ * Computes one result over the entries of a map, for {@link MeshMapImpl#aggregate(Aggregator)}. Each node folds its
+ * own entries into partial results with {@link #accumulate}, merging the partials of parallel workers with
+ * {@link #combine}; only its partial is sent back, and the caller combines those and {@link #finish finishes} the
+ * result. The aggregator and its partials are encoded with the map's codec, so both must be serializable and their
+ * classes on every node's classpath. See {@link Aggregators} for the common ones.
+ *
+ * @param <A> the partial result
+ * @param <R> the final result
+ */
+public interface Aggregator<K, V, A, R> extends Serializable {
+    /**
+     * The partial result of no entries.
+     */
+    A create();
+
+    A accumulate(A partial, K key, V value);
+
+    A combine(A left, A right);
+
+    R finish(A partial);
+}
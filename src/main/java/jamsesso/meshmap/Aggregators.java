@@ -0,0 +1,265 @@
+package jamsesso.meshmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Built-in {@link Aggregator}s.
+ */
+public final class Aggregators {
+    private Aggregators() {
+    }
+
+    /**
+     * Number of entries.
+     */
+    public static <K, V> Aggregator<K, V, Long, Long> count() {
+        return new Count<>();
+    }
+
+    /**
+     * Sum of a whole number taken from each entry.
+     */
+    public static <K, V> Aggregator<K, V, Long, Long> sumLong(
+            EntryProjection<? super K, ? super V, ? extends Number> number) {
+        return new SumLong<>(number);
+    }
+
+    /**
+     * Sum of a number taken from each entry.
+     */
+    public static <K, V> Aggregator<K, V, Double, Double> sumDouble(
+            EntryProjection<? super K, ? super V, ? extends Number> number) {
+        return new SumDouble<>(number);
+    }
+
+    /**
+     * Smallest of a value taken from each entry, or null if there are no entries.
+     */
+    public static <K, V, C extends Comparable<? super C>> Aggregator<K, V, C, C> min(
+            EntryProjection<? super K, ? super V, C> property) {
+        return new Extreme<>(property, -1);
+    }
+
+    /**
+     * Largest of a value taken from each entry, or null if there are no entries.
+     */
+    public static <K, V, C extends Comparable<? super C>> Aggregator<K, V, C, C> max(
+            EntryProjection<? super K, ? super V, C> property) {
+        return new Extreme<>(property, 1);
+    }
+
+    /**
+     * Runs the downstream aggregator over the entries that match the filter only.
+     */
+    public static <K, V, A, R> Aggregator<K, V, A, R> filtering(EntryFilter<? super K, ? super V> filter,
+                                                               Aggregator<K, V, A, R> downstream) {
+        return new Filtering<>(filter, downstream);
+    }
+
+    /**
+     * Splits the entries into groups by the classifier and runs the downstream aggregator over each group.
+     */
+    public static <K, V, G, A, R> Aggregator<K, V, HashMap<G, A>, Map<G, R>> groupBy(
+            EntryProjection<? super K, ? super V, G> classifier, Aggregator<K, V, A, R> downstream) {
+        return new GroupBy<>(classifier, downstream);
+    }
+
+    private static class Count<K, V> implements Aggregator<K, V, Long, Long> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long create() {
+            return 0L;
+        }
+
+        @Override
+        public Long accumulate(Long partial, K key, V value) {
+            return partial + 1;
+        }
+
+        @Override
+        public Long combine(Long left, Long right) {
+            return left + right;
+        }
+
+        @Override
+        public Long finish(Long partial) {
+            return partial;
+        }
+    }
+
+    private static class SumLong<K, V> implements Aggregator<K, V, Long, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryProjection<? super K, ? super V, ? extends Number> number;
+
+        SumLong(EntryProjection<? super K, ? super V, ? extends Number> number) {
+            this.number = number;
+        }
+
+        @Override
+        public Long create() {
+            return 0L;
+        }
+
+        @Override
+        public Long accumulate(Long partial, K key, V value) {
+            Number n = number.apply(key, value);
+            return n == null ? partial : partial + n.longValue();
+        }
+
+        @Override
+        public Long combine(Long left, Long right) {
+            return left + right;
+        }
+
+        @Override
+        public Long finish(Long partial) {
+            return partial;
+        }
+    }
+
+    private static class SumDouble<K, V> implements Aggregator<K, V, Double, Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryProjection<? super K, ? super V, ? extends Number> number;
+
+        SumDouble(EntryProjection<? super K, ? super V, ? extends Number> number) {
+            this.number = number;
+        }
+
+        @Override
+        public Double create() {
+            return 0.0;
+        }
+
+        @Override
+        public Double accumulate(Double partial, K key, V value) {
+            Number n = number.apply(key, value);
+            return n == null ? partial : partial + n.doubleValue();
+        }
+
+        @Override
+        public Double combine(Double left, Double right) {
+            return left + right;
+        }
+
+        @Override
+        public Double finish(Double partial) {
+            return partial;
+        }
+    }
+
+    private static class Extreme<K, V, C extends Comparable<? super C>> implements Aggregator<K, V, C, C> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryProjection<? super K, ? super V, C> property;
+        // 1 keeps the largest value, -1 the smallest.
+        private final int sign;
+
+        Extreme(EntryProjection<? super K, ? super V, C> property, int sign) {
+            this.property = property;
+            this.sign = sign;
+        }
+
+        @Override
+        public C create() {
+            return null;
+        }
+
+        @Override
+        public C accumulate(C partial, K key, V value) {
+            return combine(partial, property.apply(key, value));
+        }
+
+        @Override
+        public C combine(C left, C right) {
+            if (left == null) {
+                return right;
+            }
+
+            if (right == null) {
+                return left;
+            }
+
+            return Integer.signum(right.compareTo(left)) == sign ? right : left;
+        }
+
+        @Override
+        public C finish(C partial) {
+            return partial;
+        }
+    }
+
+    private static class Filtering<K, V, A, R> implements Aggregator<K, V, A, R> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryFilter<? super K, ? super V> filter;
+        private final Aggregator<K, V, A, R> downstream;
+
+        Filtering(EntryFilter<? super K, ? super V> filter, Aggregator<K, V, A, R> downstream) {
+            this.filter = filter;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public A create() {
+            return downstream.create();
+        }
+
+        @Override
+        public A accumulate(A partial, K key, V value) {
+            return filter.test(key, value) ? downstream.accumulate(partial, key, value) : partial;
+        }
+
+        @Override
+        public A combine(A left, A right) {
+            return downstream.combine(left, right);
+        }
+
+        @Override
+        public R finish(A partial) {
+            return downstream.finish(partial);
+        }
+    }
+
+    private static class GroupBy<K, V, G, A, R> implements Aggregator<K, V, HashMap<G, A>, Map<G, R>> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryProjection<? super K, ? super V, G> classifier;
+        private final Aggregator<K, V, A, R> downstream;
+
+        GroupBy(EntryProjection<? super K, ? super V, G> classifier, Aggregator<K, V, A, R> downstream) {
+            this.classifier = classifier;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public HashMap<G, A> create() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public HashMap<G, A> accumulate(HashMap<G, A> partial, K key, V value) {
+            G group = classifier.apply(key, value);
+            A groupPartial = partial.containsKey(group) ? partial.get(group) : downstream.create();
+            partial.put(group, downstream.accumulate(groupPartial, key, value));
+            return partial;
+        }
+
+        @Override
+        public HashMap<G, A> combine(HashMap<G, A> left, HashMap<G, A> right) {
+            right.forEach((group, groupPartial) -> left.put(group,
+                    left.containsKey(group) ? downstream.combine(left.get(group), groupPartial) : groupPartial));
+            return left;
+        }
+
+        @Override
+        public Map<G, R> finish(HashMap<G, A> partial) {
+            Map<G, R> result = new HashMap<>();
+            partial.forEach((group, groupPartial) -> result.put(group, downstream.finish(groupPartial)));
+            return result;
+        }
+    }
+}
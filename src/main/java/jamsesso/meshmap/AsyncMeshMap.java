@@ -0,0 +1,21 @@
+package jamsesso.meshmap;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking view of a {@link MeshMap}. Remote operations are pipelined on one connection per node, so any number
+ * of them can be in flight without a thread waiting on each. Futures of remote operations complete on the connection
+ * pool's callback threads, never on a connection's reader, so callbacks attached with the non-async {@code then*}
+ * methods may block or issue further async calls without stalling other responses.
+ */
+public interface AsyncMeshMap<K, V> {
+    CompletableFuture<V> getAsync(K key);
+
+    CompletableFuture<V> putAsync(K key, V value);
+
+    CompletableFuture<V> removeAsync(K key);
+
+    CompletableFuture<Boolean> containsKeyAsync(K key);
+
+    CompletableFuture<Integer> sizeAsync();
+}
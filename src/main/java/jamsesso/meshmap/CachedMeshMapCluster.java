@@ -1,30 +1,146 @@
 package jamsesso.meshmap;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Keeps the discovery directory's view of the cluster in memory as a {@link RoutingTable}. Routing a key is a
+ * binary search over the current table, with no filesystem access. The directory is only read again when
+ * membership changes ({@link #clearCache()}, called on HI/BYE), and the new table replaces the old one in a single
+ * write so readers always see a consistent ring.
+ *
+ * Nodes the failure detector took out ({@link #exclude(Node)}) stay out of the ring even though a crashed node's
+ * file is still in the directory, until they are {@link #include(Node) included} again. Neither rereads the
+ * directory.
+ */
 public class CachedMeshMapCluster extends LocalMeshMapCluster {
     private final Object[] lock = new Object[0];
+    private final Set<Node> excluded = ConcurrentHashMap.newKeySet();
 
-    private NavigableSet<Node> nodes;
+    private volatile RoutingTable table;
+    private NavigableSet<Node> discovered = Collections.emptyNavigableSet();
 
     public CachedMeshMapCluster(File directory) {
         super(directory);
     }
 
+    public CachedMeshMapCluster(File directory, int virtualNodes) {
+        super(directory, virtualNodes);
+    }
+
+    public CachedMeshMapCluster(File directory, int virtualNodes, KeyHasher hasher) {
+        super(directory, virtualNodes, hasher);
+    }
+
+    @Override
+    public RoutingTable getRoutingTable() {
+        RoutingTable current = table;
+
+        if (current == null) {
+            synchronized (lock) {
+                if (table == null) {
+                    discovered = super.getAllNodes();
+                    table = build(0);
+                }
+
+                current = table;
+            }
+        }
+
+        return current;
+    }
+
     @Override
     public NavigableSet<Node> getAllNodes() {
+        return getRoutingTable().getNodes();
+    }
+
+    @Override
+    public NavigableSet<Node> getAllNodesExcept(Node except) {
+        return getRoutingTable().getNodesExcept(except);
+    }
+
+    @Override
+    public Node getNodeForKey(Object key) {
+        return getRoutingTable().getNodeForKey(key);
+    }
+
+    @Override
+    public Node getSuccessorNode(Node node) {
+        return getRoutingTable().getSuccessorNode(node);
+    }
+
+    @Override
+    public void join(Node node) {
+        super.join(node);
+        clearCache();
+    }
+
+    @Override
+    public void leave(Node node) {
+        super.leave(node);
+        clearCache();
+    }
+
+    /**
+     * Re-reads the discovery directory and swaps in a new routing table.
+     */
+    public void clearCache() {
         synchronized (lock) {
-            if (nodes == null) {
-                nodes = super.getAllNodes();
+            discovered = super.getAllNodes();
+            table = build(table == null ? 0 : table.getVersion() + 1);
+        }
+    }
+
+    /**
+     * Takes the node out of the ring.
+     *
+     * @return false if it was already out
+     */
+    public boolean exclude(Node node) {
+        synchronized (lock) {
+            if (!excluded.add(node)) {
+                return false;
             }
-            return nodes;
+
+            getRoutingTable();
+            table = build(table.getVersion() + 1);
+            return true;
         }
     }
 
-    public void clearCache() {
+    /**
+     * Puts the node (back) in the ring, also if it is not in the directory as last read.
+     *
+     * @return false if it was already in
+     */
+    public boolean include(Node node) {
         synchronized (lock) {
-            nodes = null;
+            getRoutingTable();
+
+            if (!excluded.remove(node) && discovered.contains(node)) {
+                return false;
+            }
+
+            NavigableSet<Node> nodes = new TreeSet<>(discovered);
+            nodes.add(node);
+            discovered = nodes;
+            table = build(table.getVersion() + 1);
+            return true;
         }
     }
+
+    public boolean isExcluded(Node node) {
+        return excluded.contains(node);
+    }
+
+    private RoutingTable build(long version) {
+        NavigableSet<Node> members = new TreeSet<>(discovered);
+        members.removeAll(excluded);
+        return buildRoutingTable(members, version);
+    }
 }
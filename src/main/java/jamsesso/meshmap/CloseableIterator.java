@@ -0,0 +1,11 @@
+package jamsesso.meshmap;
+
+import java.util.Iterator;
+
+/**
+ * An iterator holding resources on other nodes until it is run to the end or closed.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+    @Override
+    void close();
+}
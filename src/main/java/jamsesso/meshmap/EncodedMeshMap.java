@@ -0,0 +1,268 @@
+package jamsesso.meshmap;
+
+import jamsesso.meshmap.codec.Bytes;
+import jamsesso.meshmap.codec.Codec;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A map whose keys and values stay encoded everywhere but in this view. Keys and values are encoded with the codec
+ * before they leave, and results are decoded when they come back; the nodes underneath only ever see {@link Bytes},
+ * which they hash, compare and store by content. Servers then decode no user objects for any request (they do not
+ * even need the user's classes), and each stored value is a single array rather than an object graph.
+ *
+ * Keys are placed on the ring by their encoded form, so every node of a cluster must be used through this view,
+ * with the same codec.
+ */
+@SuppressWarnings("unchecked")
+public class EncodedMeshMap<K, V> extends AbstractMap<K, V> implements MeshMap<K, V> {
+    private final MeshMap<Bytes, Bytes> map;
+    private final Codec codec;
+    private final AsyncMeshMap<K, V> async = new AsyncView();
+
+    /**
+     * @param map   the map the encoded keys and values are kept in
+     * @param codec encodes keys and values; equal keys must encode to the same bytes
+     */
+    public EncodedMeshMap(MeshMap<Bytes, Bytes> map, Codec codec) {
+        this.map = map;
+        this.codec = codec;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(encode(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(encode(value));
+    }
+
+    @Override
+    public V get(Object key) {
+        return (V) decode(map.get(encode(key)));
+    }
+
+    @Override
+    public V put(K key, V value) {
+        map.put(encode(key), encode(value));
+        return value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        return (V) decode(map.remove(encode(key)));
+    }
+
+    /**
+     * Encoded values compare by content, so the conditional writes below stay atomic on the underlying map.
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return (V) decode(map.putIfAbsent(encode(key), encode(value)));
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return (V) decode(map.replace(encode(key), encode(value)));
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return map.replace(encode(key), encode(oldValue), encode(newValue));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return map.remove(encode(key), encode(value));
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        Map<Bytes, Bytes> encoded = new LinkedHashMap<>(m.size() * 2);
+
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            encoded.put(encode(entry.getKey()), encode(entry.getValue()));
+        }
+
+        map.putAll(encoded);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>();
+
+        for (Map.Entry<Bytes, Bytes> entry : map.getAll(encodeAll(keys)).entrySet()) {
+            result.put((K) decode(entry.getKey()), (V) decode(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void removeAll(Collection<? extends K> keys) {
+        map.removeAll(encodeAll(keys));
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * Decodes the keys of the underlying map's key set as they are iterated.
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<Bytes> keys = map.keySet();
+
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return decoding(keys.iterator(), key -> (K) decode(key));
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<Bytes> values = map.values();
+
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return decoding(values.iterator(), value -> (V) decode(value));
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<Bytes, Bytes>> entries = map.entrySet();
+
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return decoding(entries.iterator(),
+                        entry -> new SimpleImmutableEntry<>((K) decode(entry.getKey()), (V) decode(entry.getValue())));
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    @Override
+    public AsyncMeshMap<K, V> async() {
+        return async;
+    }
+
+    @Override
+    public void close() throws Exception {
+        map.close();
+    }
+
+    private Bytes encode(Object object) {
+        return Bytes.wrap(codec.encode(object));
+    }
+
+    private List<Bytes> encodeAll(Collection<?> objects) {
+        List<Bytes> encoded = new ArrayList<>(objects.size());
+
+        for (Object object : objects) {
+            encoded.add(encode(object));
+        }
+
+        return encoded;
+    }
+
+    private Object decode(Bytes bytes) {
+        return bytes == null ? null : bytes.decode(codec);
+    }
+
+    private static <T, R> Iterator<R> decoding(Iterator<T> iterator, Function<T, R> decoder) {
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return decoder.apply(iterator.next());
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+
+    private class AsyncView implements AsyncMeshMap<K, V> {
+        @Override
+        public CompletableFuture<V> getAsync(K key) {
+            return map.async().getAsync(encode(key)).thenApply(value -> (V) decode(value));
+        }
+
+        @Override
+        public CompletableFuture<V> putAsync(K key, V value) {
+            return map.async().putAsync(encode(key), encode(value)).thenApply(ignored -> value);
+        }
+
+        @Override
+        public CompletableFuture<V> removeAsync(K key) {
+            return map.async().removeAsync(encode(key)).thenApply(value -> (V) decode(value));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> containsKeyAsync(K key) {
+            return map.async().containsKeyAsync(encode(key));
+        }
+
+        @Override
+        public CompletableFuture<Integer> sizeAsync() {
+            return map.async().sizeAsync();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package jamsesso.meshmap;
+
+import java.io.Serializable;
+
+/**
+ * Selects entries in a {@link MeshMapImpl#scan(EntryFilter) scan}. It is sent to every node and run there, so it must
+ * survive encoding with the map's codec (a lambda assigned to this type is serializable) and its classes must be on
+ * every node's classpath.
+ */
+@FunctionalInterface
+public interface EntryFilter<K, V> extends Serializable {
+    boolean test(K key, V value);
+}
@@ -0,0 +1,22 @@
+package jamsesso.meshmap;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Reads and updates one entry in place on the node that owns it, for {@link MeshMapImpl#executeOnKey}. The
+ * processor is sent to the owner, applied there atomically with respect to other writes of the key, and only its
+ * result comes back. It must survive encoding with the map's codec (a lambda assigned to this type is serializable)
+ * and its classes must be on every node's classpath. Stores without an atomic compute of their own may apply it more
+ * than once, so it should have no side effects beyond the entry.
+ *
+ * @param <R> the result sent back to the caller
+ */
+@FunctionalInterface
+public interface EntryProcessor<K, V, R> extends Serializable {
+    /**
+     * @param entry the entry; its value is null if the key is absent. {@code setValue} writes a new value, and
+     *              {@code setValue(null)} removes the key.
+     */
+    R process(Map.Entry<K, V> entry);
+}
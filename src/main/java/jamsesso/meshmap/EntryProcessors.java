@@ -0,0 +1,163 @@
+package jamsesso.meshmap;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The processors behind the atomic {@link java.util.concurrent.ConcurrentMap} style operations of
+ * {@link MeshMapImpl}. Each mirrors the {@link Map} method of the same name, applied on the owner node.
+ */
+final class EntryProcessors {
+    private EntryProcessors() {
+    }
+
+    static final class PutIfAbsent implements EntryProcessor<Object, Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+
+        PutIfAbsent(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+
+            if (current == null) {
+                entry.setValue(value);
+            }
+
+            return current;
+        }
+    }
+
+    static final class Replace implements EntryProcessor<Object, Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+
+        Replace(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+
+            if (current != null) {
+                entry.setValue(value);
+            }
+
+            return current;
+        }
+    }
+
+    /**
+     * Replaces the value if it equals {@code expected}, or removes the key if the new value is null.
+     */
+    static final class ReplaceIfEquals implements EntryProcessor<Object, Object, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object expected;
+        private final Object value;
+
+        ReplaceIfEquals(Object expected, Object value) {
+            this.expected = expected;
+            this.value = value;
+        }
+
+        @Override
+        public Boolean process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+
+            if (current == null || !current.equals(expected)) {
+                return false;
+            }
+
+            entry.setValue(value);
+            return true;
+        }
+    }
+
+    static final class ComputeIfAbsent implements EntryProcessor<Object, Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Function<Object, Object> function;
+
+        ComputeIfAbsent(Function<Object, Object> function) {
+            this.function = function;
+        }
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+
+            if (current != null) {
+                return current;
+            }
+
+            Object value = function.apply(entry.getKey());
+
+            if (value != null) {
+                entry.setValue(value);
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * Computes a new value from the current one; with {@code onlyIfPresent}, absent keys are left alone.
+     */
+    static final class Compute implements EntryProcessor<Object, Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final BiFunction<Object, Object, Object> function;
+        private final boolean onlyIfPresent;
+
+        Compute(BiFunction<Object, Object, Object> function, boolean onlyIfPresent) {
+            this.function = function;
+            this.onlyIfPresent = onlyIfPresent;
+        }
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+
+            if (current == null && onlyIfPresent) {
+                return null;
+            }
+
+            Object value = function.apply(entry.getKey(), current);
+
+            if (value != null || current != null) {
+                entry.setValue(value);
+            }
+
+            return value;
+        }
+    }
+
+    static final class Merge implements EntryProcessor<Object, Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+        private final BiFunction<Object, Object, Object> function;
+
+        Merge(Object value, BiFunction<Object, Object, Object> function) {
+            this.value = Objects.requireNonNull(value);
+            this.function = function;
+        }
+
+        @Override
+        public Object process(Map.Entry<Object, Object> entry) {
+            Object current = entry.getValue();
+            Object merged = current == null ? value : function.apply(current, value);
+            entry.setValue(merged);
+            return merged;
+        }
+    }
+}
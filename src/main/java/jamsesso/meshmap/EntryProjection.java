@@ -0,0 +1,13 @@
+package jamsesso.meshmap;
+
+import java.io.Serializable;
+
+/**
+ * Turns a matching entry's value into what a {@link MeshMapImpl#scan(EntryFilter, EntryProjection) scan} returns
+ * for it, on the node that holds it, so that only the part that is needed is sent. The same rules as for
+ * {@link EntryFilter} apply.
+ */
+@FunctionalInterface
+public interface EntryProjection<K, V, R> extends Serializable {
+    R apply(K key, V value);
+}
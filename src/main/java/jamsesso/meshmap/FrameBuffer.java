@@ -0,0 +1,73 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Accumulates bytes from a channel and cuts them into frames. Backed by a pooled direct buffer; a frame larger than
+ * that buffer temporarily gets a buffer of its own.
+ */
+public class FrameBuffer implements AutoCloseable {
+    private ByteBuffer buffer = BufferPool.READS.acquire();
+
+    /**
+     * Reads whatever the channel has available.
+     *
+     * @return the number of bytes read, or -1 at end of stream.
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        return channel.read(buffer);
+    }
+
+    /**
+     * Calls the consumer for every complete frame buffered so far and keeps any partial frame for the next read.
+     */
+    public void drain(MessageConsumer consumer) throws IOException {
+        buffer.flip();
+        Message message;
+
+        while ((message = Message.decode(buffer)) != null) {
+            consumer.accept(message);
+        }
+
+        buffer.compact();
+        ensureCapacityForNextFrame();
+    }
+
+    @Override
+    public void close() {
+        BufferPool.READS.release(buffer);
+        buffer = null;
+    }
+
+    private void ensureCapacityForNextFrame() throws IOException {
+        // The buffer is in write mode here, holding position() bytes of a partial frame.
+        int buffered = buffer.position();
+
+        if (buffered == 0 && !buffer.isDirect()) {
+            // Back to a pooled buffer once the oversized frame has been consumed.
+            buffer = BufferPool.READS.acquire();
+            return;
+        }
+
+        if (buffered < Message.HEADER_SIZE) {
+            return;
+        }
+
+        int required = Message.HEADER_SIZE + Message.frameSize(buffer, 0);
+
+        if (required > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(required);
+            buffer.flip();
+            larger.put(buffer);
+            BufferPool.READS.release(buffer);
+            buffer = larger;
+        }
+    }
+
+    @FunctionalInterface
+    public interface MessageConsumer {
+        void accept(Message message) throws IOException;
+    }
+}
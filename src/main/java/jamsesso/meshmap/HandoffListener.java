@@ -0,0 +1,13 @@
+package jamsesso.meshmap;
+
+/**
+ * Told how far along a leaving node's handoff is, each time a batch has been acknowledged. Called from the threads
+ * that complete the requests, so it should return quickly.
+ */
+@FunctionalInterface
+public interface HandoffListener {
+    HandoffListener NONE = (transferred, total) -> {
+    };
+
+    void progress(long transferred, long total);
+}
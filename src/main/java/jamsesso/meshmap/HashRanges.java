@@ -0,0 +1,102 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable set of disjoint ranges of the (non-negative) hash space, each running from an exclusive start to an
+ * inclusive end like the ranges owned by ring tokens. A range whose start is not below its end wraps around the top
+ * of the ring. Membership is a binary search.
+ */
+public final class HashRanges {
+    private final int[] starts;
+    private final int[] ends;
+
+    private HashRanges(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * @param ranges pairs of {exclusive start, inclusive end}
+     */
+    public static HashRanges of(List<int[]> ranges) {
+        List<int[]> split = new ArrayList<>(ranges.size() + 1);
+
+        for (int[] range : ranges) {
+            if (range[0] < range[1]) {
+                split.add(range);
+            } else {
+                // Wraps around the top of the ring (or, when start == end, covers all of it).
+                if (range[0] < Integer.MAX_VALUE) {
+                    split.add(new int[]{range[0], Integer.MAX_VALUE});
+                }
+
+                split.add(new int[]{-1, range[1]});
+            }
+        }
+
+        split.sort(Comparator.comparingInt(range -> range[1]));
+
+        int[] starts = new int[split.size()];
+        int[] ends = new int[split.size()];
+
+        for (int i = 0; i < split.size(); i++) {
+            starts[i] = split.get(i)[0];
+            ends[i] = split.get(i)[1];
+        }
+
+        return new HashRanges(starts, ends);
+    }
+
+    public boolean contains(int hash) {
+        int index = Arrays.binarySearch(ends, hash);
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        return index < ends.length && hash > starts[index];
+    }
+
+    public boolean isEmpty() {
+        return ends.length == 0;
+    }
+
+    /**
+     * Flattens the ranges into {@code start, end, start, end, ...} for a message payload.
+     */
+    public Object[] toPayload() {
+        Object[] payload = new Object[ends.length * 2];
+
+        for (int i = 0; i < ends.length; i++) {
+            payload[i * 2] = starts[i];
+            payload[i * 2 + 1] = ends[i];
+        }
+
+        return payload;
+    }
+
+    public static HashRanges fromPayload(Object[] payload, int offset) {
+        List<int[]> ranges = new ArrayList<>();
+
+        for (int i = offset; i + 1 < payload.length; i += 2) {
+            ranges.add(new int[]{(Integer) payload[i], (Integer) payload[i + 1]});
+        }
+
+        return of(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("HashRanges[");
+
+        for (int i = 0; i < ends.length; i++) {
+            builder.append(i == 0 ? "(" : ", (").append(starts[i]).append(", ").append(ends[i]).append(']');
+        }
+
+        return builder.append(']').toString();
+    }
+}
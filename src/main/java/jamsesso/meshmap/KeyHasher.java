@@ -0,0 +1,10 @@
+package jamsesso.meshmap;
+
+/**
+ * Places keys on the ring. The result must be non-negative and the same on every node, so every member of a cluster
+ * has to use the same hasher. See {@link KeyHashers} for the built-in ones.
+ */
+@FunctionalInterface
+public interface KeyHasher {
+    int hash(Object key);
+}
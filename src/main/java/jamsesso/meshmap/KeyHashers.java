@@ -0,0 +1,91 @@
+package jamsesso.meshmap;
+
+import jamsesso.meshmap.codec.Codec;
+
+/**
+ * Built-in {@link KeyHasher}s.
+ */
+public final class KeyHashers {
+    /**
+     * The key's own {@code hashCode()}, unmixed. Sequential integers and strings sharing a prefix land in narrow
+     * bands of the ring, so a few nodes get most of the keys. Only useful for keys with already well spread hashes.
+     */
+    public static final KeyHasher HASH_CODE = key -> key.hashCode() & Integer.MAX_VALUE;
+
+    /**
+     * The key's {@code hashCode()} passed through the MurmurHash3 finalizer, which spreads every input bit over the
+     * whole result. Costs a few multiplications and needs no serialization.
+     */
+    public static final KeyHasher MIXED = key -> mix(key.hashCode()) & Integer.MAX_VALUE;
+
+    private KeyHashers() {
+    }
+
+    /**
+     * Hasher used by clusters that do not ask for a specific one.
+     */
+    public static KeyHasher getDefault() {
+        return MIXED;
+    }
+
+    /**
+     * MurmurHash3 (x86, 32 bit) over the key's encoded bytes. Independent of how the key class implements
+     * {@code hashCode()}, at the cost of encoding every key that is routed.
+     */
+    public static KeyHasher murmur3(Codec codec) {
+        return key -> murmur3(codec.encode(key), 0) & Integer.MAX_VALUE;
+    }
+
+    /**
+     * The MurmurHash3 32 bit finalizer.
+     */
+    public static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * MurmurHash3 (x86, 32 bit) of a byte array.
+     */
+    public static int murmur3(byte[] data, int seed) {
+        final int c1 = 0xCC9E2D51;
+        final int c2 = 0x1B873593;
+        int h = seed;
+        int blocks = data.length & ~3;
+
+        for (int i = 0; i < blocks; i += 4) {
+            int k = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | data[i + 3] << 24;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xE6546B64;
+        }
+
+        int tail = data.length & 3;
+
+        if (tail > 0) {
+            int k = data[blocks] & 0xFF;
+
+            if (tail > 1) {
+                k ^= (data[blocks + 1] & 0xFF) << 8;
+            }
+
+            if (tail > 2) {
+                k ^= (data[blocks + 2] & 0xFF) << 16;
+            }
+
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+        }
+
+        return mix(h ^ data.length);
+    }
+}
@@ -6,9 +6,29 @@ import java.util.*;
 import java.util.stream.Stream;
 
 public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
+    /**
+     * Ring positions per node. With a single position per node, a handful of nodes can own several times more of
+     * the hash space than others; 64 keeps every node within about a quarter of its fair share for typical cluster
+     * sizes (see {@code jamsesso.meshmap.examples.RingSkewReport}). Every node in a cluster must use the same value.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
     private final File directory;
+    private final int virtualNodes;
+    private final KeyHasher hasher;
 
     public LocalMeshMapCluster(File directory) {
+        this(directory, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public LocalMeshMapCluster(File directory, int virtualNodes) {
+        this(directory, virtualNodes, KeyHashers.getDefault());
+    }
+
+    /**
+     * @param hasher places keys on the ring. Every node in a cluster must use the same one.
+     */
+    public LocalMeshMapCluster(File directory, int virtualNodes, KeyHasher hasher) {
         directory.mkdirs();
 
         if (!directory.isDirectory()) {
@@ -20,10 +40,20 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
         }
 
         this.directory = directory;
+        this.virtualNodes = virtualNodes;
+        this.hasher = hasher;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
     }
 
     @Override
     public NavigableSet<Node> getAllNodes() {
+        return readDirectory();
+    }
+
+    private NavigableSet<Node> readDirectory() {
         final NavigableSet<Node> nodes = new TreeSet<>(Comparator.comparingInt(Node::getId));
         Stream.of(Objects.requireNonNull(directory.listFiles()))
                 .filter(File::isFile)
@@ -36,24 +66,23 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
 
     @Override
     public Node getNodeForKey(Object key) {
-        /*
-        *    private Node getNodeForKey(Object key) {
-        int hash = key.hashCode() & Integer.MAX_VALUE;
-        List<Node> nodes = cluster.getAllNodes();
-
-        for (Node node : nodes) {
-            if (hash <= node.getId()) {
-                return node;
-            }
-        }
+        return getRoutingTable().getNodeForKey(key);
+    }
 
-        return nodes.get(0);
-    }*/
-        final NavigableSet<Node> allNodes = getAllNodes();
-        int hash = key.hashCode() & Integer.MAX_VALUE;
-        Node node = new Node(hash);
-        final Node higher = allNodes.ceiling(node);
-        return (higher != null) ? higher : allNodes.first();
+    /**
+     * Reads the discovery directory and builds a new routing table from it on every call.
+     */
+    @Override
+    public RoutingTable getRoutingTable() {
+        return buildRoutingTable(0);
+    }
+
+    protected RoutingTable buildRoutingTable(long version) {
+        return buildRoutingTable(readDirectory(), version);
+    }
+
+    protected RoutingTable buildRoutingTable(Collection<Node> nodes, long version) {
+        return RoutingTable.of(nodes, virtualNodes, hasher, version);
     }
 
     @Override
@@ -88,6 +117,15 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
     return map;*/
     }
 
+    @Override
+    public void leave(Node node) {
+        File file = new File(directory.getAbsolutePath() + File.separator + node.toString());
+
+        if (file.exists() && !file.delete()) {
+            throw new RuntimeException("File could not be deleted: " + file.getName());
+        }
+    }
+
     @Override
     public void close() throws Exception {
    /* File file = new File(directory.getAbsolutePath() + File.separator + self.toString());
@@ -106,38 +144,15 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
     @Override
     public NavigableSet<Node> getAllNodesExcept(Node except) {
         final NavigableSet<Node> allNodes = getAllNodes();
-        final NavigableSet<Node> nodesHead = allNodes.headSet(except, false);
-        final NavigableSet<Node> nodesTail = allNodes.tailSet(except, false);
-        nodesHead.addAll(nodesTail);
-        return nodesHead;
-    }
-/*
-*
-    private Node getSuccessorNode() {
-        List<Node> nodes = cluster.getAllNodes();
-
-        if (nodes.size() <= 1) {
-            return null;
-        }
-
-        int selfIndex = Collections.binarySearch(nodes, self, Comparator.comparingInt(Node::getId));
-        int successorIndex = selfIndex + 1;
-
-        // Find the successor node.
-        if (successorIndex > nodes.size() - 1) {
-            return nodes.get(0);
-        } else {
-            return nodes.get(successorIndex);
-        }
+        // Copy rather than add to a head set view: the view rejects keys out of its range and, for a cached
+        // cluster, writes through to the cache.
+        final NavigableSet<Node> nodes = new TreeSet<>(allNodes.comparator());
+        nodes.addAll(allNodes.headSet(except, false));
+        nodes.addAll(allNodes.tailSet(except, false));
+        return nodes;
     }
-* */
     @Override
     public Node getSuccessorNode(Node node) {
-        final NavigableSet<Node> allNodes = getAllNodes();
-        final Node higher = allNodes.higher(node);
-        if (higher == null) {
-            return allNodes.first();
-        }
-        return higher;
+        return getRoutingTable().getSuccessorNode(node);
     }
 }
@@ -0,0 +1,276 @@
+package jamsesso.meshmap;
+
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.codec.Codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_GOSSIP;
+
+/**
+ * Takes crashed nodes out of the ring without waiting for anyone to remove their discovery file, and spreads what
+ * every node learns about the others by gossip.
+ *
+ * Every heartbeat interval this node sends a GOSSIP to each node in its ring, carrying its view of the membership;
+ * the answer carries the peer's view, and both count as heartbeats for the {@link PhiAccrualFailureDetector}. A node
+ * whose phi crosses the threshold is marked down and excluded from the ring, and the next round of gossip tells
+ * every other node, which excludes it too without having to detect the failure itself.
+ *
+ * Every node has an incarnation number, taken from the clock when it starts and gossiped with its status. A down at
+ * the same incarnation beats an up, and a higher incarnation beats both. A node that is told it is down while it is
+ * not (a long pause, a lost link) answers with a higher incarnation, and every node puts it back in the ring. A node
+ * restarted with the same ID comes back the same way.
+ */
+public class Membership implements AutoCloseable {
+    private final Node self;
+    private final CachedMeshMapCluster cluster;
+    private final MeshMapClient client;
+    private final Codec codec;
+    private final Runnable onChange;
+    private final PhiAccrualFailureDetector detector;
+    private final ScheduledExecutorService scheduler;
+    // Sends each GOSSIP, since opening a connection blocks for as long as the peer takes to answer the connect.
+    private final ExecutorService senders;
+    // Nodes whose last GOSSIP has not been written yet; they are skipped rather than given a second sender.
+    private final Set<Node> sending = ConcurrentHashMap.newKeySet();
+    // Written on the scheduler thread only.
+    private final Map<Node, Status> statuses = new ConcurrentHashMap<>();
+    private final LongAdder suspicions = new LongAdder();
+    private final LongAdder exclusions = new LongAdder();
+    private volatile long incarnation = System.currentTimeMillis();
+
+    /**
+     * @param onChange run after a node was taken out of or put back in the ring, e.g. to rebalance replicas
+     */
+    public Membership(Node self, CachedMeshMapCluster cluster, MeshMapClient client, Codec codec,
+                      long heartbeatIntervalMillis, double phiThreshold, Runnable onChange) {
+        this.self = self;
+        this.cluster = cluster;
+        this.client = client;
+        this.codec = codec;
+        this.onChange = onChange;
+        this.detector = new PhiAccrualFailureDetector(phiThreshold, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "meshmap-membership");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger senderThreads = new AtomicInteger();
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "meshmap-gossip-" + senderThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::gossip, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles a GOSSIP from another node and returns this node's view for the answer.
+     */
+    public Object[] receive(Object[] digest) {
+        if (digest.length > 0) {
+            detector.heartbeat(Node.from((String) digest[0]));
+        }
+
+        scheduler.execute(() -> merge(digest));
+        return digest();
+    }
+
+    /**
+     * Tells the other nodes that this node is leaving, so that none of them gossips it back into the ring, and stops
+     * gossiping.
+     */
+    public void leave() {
+        Object[] down = {self.toString(), false, incarnation};
+        List<CompletableFuture<Message>> acks = new ArrayList<>();
+
+        for (Node node : cluster.getAllNodesExcept(self)) {
+            acks.add(client.messageAsync(node, new Message(TYPE_GOSSIP, down, codec)));
+        }
+
+        for (CompletableFuture<Message> ack : acks) {
+            ack.exceptionally(e -> null).join();
+        }
+
+        close();
+    }
+
+    /**
+     * The number of times the failure detector found a node down.
+     */
+    public long getSuspicions() {
+        return suspicions.sum();
+    }
+
+    /**
+     * The number of times a node was taken out of the ring, on this node's suspicion or another's.
+     */
+    public long getExclusions() {
+        return exclusions.sum();
+    }
+
+    public double phi(Node node) {
+        return detector.phi(node);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    private void gossip() {
+        try {
+            Object[] digest = digest();
+
+            for (Node node : cluster.getAllNodesExcept(self)) {
+                send(node, new Message(TYPE_GOSSIP, digest, codec));
+            }
+
+            for (Node node : cluster.getAllNodesExcept(self)) {
+                if (!detector.isAvailable(node)) {
+                    suspicions.increment();
+                    Status known = statuses.get(node);
+                    markDown(node, known == null ? 0 : known.incarnation);
+                }
+            }
+
+            detector.retain(cluster.getAllNodesExcept(self));
+        } catch (RuntimeException e) {
+            // The next round tries again; a node that cannot be reached is the detector's business.
+        }
+    }
+
+    /**
+     * Sends off the scheduler thread, so that a peer whose connect hangs delays neither the other peers' gossip nor
+     * the accounting of their answers. The heartbeat is recorded as soon as the answer arrives.
+     */
+    private void send(Node node, Message gossip) {
+        if (!sending.add(node)) {
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.messageAsync(node, gossip);
+            } finally {
+                sending.remove(node);
+            }
+        }, senders).thenCompose(response -> response).thenAccept(response -> {
+            detector.heartbeat(node);
+
+            if (TYPE_GOSSIP.equals(response.getType())) {
+                Object[] view = response.getPayload(Object[].class);
+                scheduler.execute(() -> merge(view));
+            }
+        });
+    }
+
+    /**
+     * [node, up, incarnation] for this node, every node in the ring, and every node known to be down.
+     */
+    private Object[] digest() {
+        List<Object> digest = new ArrayList<>();
+        digest.add(self.toString());
+        digest.add(true);
+        digest.add(incarnation);
+
+        for (Node node : cluster.getAllNodesExcept(self)) {
+            Status status = statuses.get(node);
+            digest.add(node.toString());
+            digest.add(true);
+            digest.add(status == null ? 0L : status.incarnation);
+        }
+
+        statuses.forEach((node, status) -> {
+            if (!status.up) {
+                digest.add(node.toString());
+                digest.add(false);
+                digest.add(status.incarnation);
+            }
+        });
+
+        return digest.toArray();
+    }
+
+    private void merge(Object[] digest) {
+        boolean changed = false;
+
+        for (int i = 0; i + 2 < digest.length; i += 3) {
+            Node node = Node.from((String) digest[i]);
+            boolean up = (Boolean) digest[i + 1];
+            long nodeIncarnation = (Long) digest[i + 2];
+
+            if (node.equals(self)) {
+                if (!up && nodeIncarnation >= incarnation) {
+                    // Refute: whoever thinks this node is down learns otherwise from the next round.
+                    incarnation = nodeIncarnation + 1;
+                }
+                continue;
+            }
+
+            Status known = statuses.get(node);
+
+            if (known != null && !(nodeIncarnation > known.incarnation
+                    || nodeIncarnation == known.incarnation && known.up && !up)) {
+                continue;
+            }
+
+            statuses.put(node, new Status(up, nodeIncarnation));
+
+            if (up) {
+                if (cluster.include(node)) {
+                    detector.remove(node);
+                    changed = true;
+                }
+            } else {
+                changed |= exclude(node);
+            }
+        }
+
+        if (changed) {
+            onChange.run();
+        }
+    }
+
+    private void markDown(Node node, long nodeIncarnation) {
+        statuses.put(node, new Status(false, nodeIncarnation));
+
+        if (exclude(node)) {
+            onChange.run();
+        }
+    }
+
+    private boolean exclude(Node node) {
+        if (!cluster.exclude(node)) {
+            return false;
+        }
+
+        exclusions.increment();
+        detector.remove(node);
+        client.getPool().evict(node);
+        return true;
+    }
+
+    private static class Status {
+        final boolean up;
+        final long incarnation;
+
+        Status(boolean up, long incarnation) {
+            this.up = up;
+            this.incarnation = incarnation;
+        }
+    }
+}
@@ -1,7 +1,23 @@
 package jamsesso.meshmap;
 
+import java.util.Collection;
 import java.util.Map;
 
 public interface MeshMap<K, V> extends Map<K, V>, AutoCloseable {
+    /**
+     * Looks up many keys at once, with one round trip per node that owns any of them rather than one per key.
+     *
+     * @return the keys that have a value, with their values.
+     */
+    Map<K, V> getAll(Collection<? extends K> keys);
 
+    /**
+     * Removes many keys at once, with one round trip per node that owns any of them rather than one per key.
+     */
+    void removeAll(Collection<? extends K> keys);
+
+    /**
+     * A view of this map whose operations return futures instead of blocking the caller.
+     */
+    AsyncMeshMap<K, V> async();
 }
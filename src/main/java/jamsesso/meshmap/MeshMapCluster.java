@@ -11,5 +11,9 @@ public interface MeshMapCluster {
 
     Node getNodeForKey(Object key);
 
+    RoutingTable getRoutingTable();
+
     void join(Node node);
+
+    void leave(Node node);
 }
@@ -1,66 +1,300 @@
 package jamsesso.meshmap;
 
 
+import jamsesso.meshmap.client.BroadcastResult;
 import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Codecs;
+import jamsesso.meshmap.codec.Gzip;
+import jamsesso.meshmap.server.Cursor;
+import jamsesso.meshmap.server.CursorRegistry;
 import jamsesso.meshmap.server.MeshMapServer;
+import jamsesso.meshmap.server.ScanCursor;
+import jamsesso.meshmap.store.HeapLocalStore;
+import jamsesso.meshmap.store.LocalStore;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static jamsesso.meshmap.client.MeshMapClient.broadcast;
 import static jamsesso.meshmap.server.MessageHandlerImpl.*;
 
 public class MeshMapImpl<K, V> implements MeshMap<K, V> {
-
+    private static final int BATCH_SIZE = 10_000;
+    private static final int HANDOFF_WINDOW = 4;
+    private static final long REBALANCE_RETRY_INITIAL_DELAY_MILLIS = 100;
+    private static final long REBALANCE_RETRY_MAX_DELAY_MILLIS = 10_000;
+    private static final int SCAN_CHUNK_SIZE = 1_000;
+    private static final int PARALLEL_AGGREGATION_THRESHOLD = 10_000;
 
     private final CachedMeshMapCluster cluster;
 
     private final MeshMapClient client;
     private final Node self;
-    private final Map<Object, Object> delegate;
+    private final LocalStore delegate;
+    private final Map<Object, Object> backups = new ConcurrentHashMap<>();
+    private final Codec codec;
+    private final AsyncMeshMap<K, V> async = new AsyncView();
+    private volatile int replicationFactor = 1;
+    private volatile WriteConsistency writeConsistency = WriteConsistency.ONE;
+    private volatile boolean replicaReads;
+    private volatile RoutingTable replicatedOn;
+    private volatile NearCache nearCache;
+    private volatile SizeTracker sizeTracker;
+    private volatile Membership membership;
+    // Key -> nodes that read it into their near cache since it was last written here.
+    private final ConcurrentMap<Object, Set<Node>> readers = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebalancePending = new AtomicBoolean();
+    private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "meshmap-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public MeshMapImpl(File dir, MeshMapClient client, Node self) {
-        this.cluster = new CachedMeshMapCluster(dir);
+        this(dir, client, self, Codecs.getDefault());
+    }
+
+    /**
+     * @param codec used for the keys and values this map sends to other nodes. It must be registered in
+     *              {@link Codecs} on every node.
+     */
+    public MeshMapImpl(File dir, MeshMapClient client, Node self, Codec codec) {
+        this(new CachedMeshMapCluster(dir), client, self, codec);
+    }
+
+    /**
+     * @param cluster the view of the cluster to route with, for example one configured with a different number of
+     *                virtual nodes. It should also be the one the server's message handler refreshes on HI/BYE.
+     */
+    public MeshMapImpl(CachedMeshMapCluster cluster, MeshMapClient client, Node self, Codec codec) {
+        this(cluster, client, self, codec, new HeapLocalStore());
+    }
+
+    /**
+     * @param store where this node keeps the entries it owns, for example an
+     *              {@link jamsesso.meshmap.store.OffHeapLocalStore} to keep large data sets out of the Java heap. It
+     *              is closed with the map.
+     */
+    public MeshMapImpl(CachedMeshMapCluster cluster, MeshMapClient client, Node self, Codec codec, LocalStore store) {
+        this.cluster = cluster;
         this.client = client;
         this.self = self;
-        this.delegate = new ConcurrentHashMap<>();
+        this.delegate = store;
+        this.codec = codec;
+    }
+
+    /**
+     * Keeps every key on its owner and on the next {@code replicationFactor - 1} distinct nodes clockwise on the
+     * ring, so that a node can be lost without losing its keys. Backups are held apart from the node's own entries
+     * and are promoted when the ring changes and this node becomes the owner (see {@link #rebalanceReplicas()}).
+     * Every node in a cluster must use the same replication factor.
+     */
+    public MeshMapImpl<K, V> withReplication(int replicationFactor, WriteConsistency writeConsistency) {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor must be at least 1");
+        }
+
+        this.replicationFactor = replicationFactor;
+        this.writeConsistency = writeConsistency;
+        this.replicatedOn = cluster.getRoutingTable();
+        return this;
+    }
+
+    /**
+     * Sends single-key reads to any replica rather than always to the owner: this node if it holds a copy, a random
+     * replica otherwise. Spreads reads of hot keys over several nodes, at the cost of reading a backup that may not
+     * have seen a write made with {@link WriteConsistency#ONE} yet.
+     */
+    public MeshMapImpl<K, V> withReplicaReads(boolean replicaReads) {
+        this.replicaReads = replicaReads;
+        return this;
+    }
+
+    /**
+     * Caches values read from other nodes, up to {@code maxSize} of them for at most {@code ttl}. Cached reads go to
+     * the key's owner, which remembers the reader and sends it an INVALIDATE when the key is next written. Writes
+     * made through this map invalidate its own cache right away.
+     */
+    public MeshMapImpl<K, V> withNearCache(int maxSize, long ttl, TimeUnit unit) {
+        this.nearCache = new NearCache(maxSize, ttl, unit);
+        return this;
+    }
+
+    /**
+     * The near cache and its statistics, or null if there is none.
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Serves {@link #size()} and {@link #isEmpty()} from entry counts the nodes publish to each other, asking a node
+     * only when its last count is older than {@code maxStaleness}. The size may then be off by the writes of that
+     * last interval; {@link #exactSize()} still asks every node. Every node that should publish its count needs
+     * tracking on.
+     */
+    public MeshMapImpl<K, V> withSizeTracking(long maxStaleness, TimeUnit unit) {
+        SizeTracker previous = sizeTracker;
+        sizeTracker = new SizeTracker(maxStaleness, unit, delegate::size, this::publishSize);
+
+        if (previous != null) {
+            previous.close();
+        }
+
+        return this;
     }
 
+    /**
+     * The size tracker and its statistics, or null if sizes are not tracked.
+     */
+    public SizeTracker getSizeTracker() {
+        return sizeTracker;
+    }
+
+    /**
+     * Exchanges heartbeats with the other nodes every {@code heartbeatIntervalMillis} and takes a node out of the
+     * ring once its phi reaches {@code phiThreshold} (8 suspects a node after roughly four missed intervals), then
+     * rebalances replicas as for a BYE. See {@link Membership}. Every node in a cluster should run it.
+     */
+    public MeshMapImpl<K, V> withFailureDetection(long heartbeatIntervalMillis, double phiThreshold) {
+        Membership previous = membership;
+        membership = new Membership(self, cluster, client, codec, heartbeatIntervalMillis, phiThreshold,
+                this::rebalanceReplicasLater);
+
+        if (previous != null) {
+            previous.close();
+        }
 
+        return this;
+    }
 
+    /**
+     * The membership service, or null if failure detection is off.
+     */
+    public Membership getMembership() {
+        return membership;
+    }
+
+    /**
+     * With size tracking on, adds up the counts the other nodes published and asks only those whose count is older
+     * than the staleness bound. Otherwise the same as {@link #exactSize()}.
+     */
     @Override
     public int size() {
+        SizeTracker tracker = sizeTracker;
+
+        if (tracker == null) {
+            return exactSize();
+        }
+
+        NavigableSet<Node> others = cluster.getAllNodesExcept(self);
+        tracker.retain(others);
+        int size = delegate.size();
+        List<Node> stale = new ArrayList<>();
+
+        for (Node node : others) {
+            Integer count = tracker.get(node);
+
+            if (count == null) {
+                stale.add(node);
+            } else {
+                size += count;
+            }
+        }
+
+        List<CompletableFuture<Message>> responses = new ArrayList<>(stale.size());
+
+        for (Node node : stale) {
+            responses.add(client.messageAsync(node, new Message(TYPE_SIZE)));
+        }
+
+        List<Message> counts = await(responses);
+
+        for (int i = 0; i < counts.size(); i++) {
+            if (!TYPE_SIZE.equals(counts.get(i).getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + counts.get(i));
+            }
+
+            int count = counts.get(i).getPayloadAsInt();
+            tracker.record(stale.get(i), count);
+            size += count;
+        }
+
+        return size;
+    }
+
+    /**
+     * Asks every other node for its count, whether or not size tracking is on. Fails if a node does not answer, rather
+     * than leaving its entries out of the count.
+     */
+    public int exactSize() {
         Message sizeMsg = new Message(TYPE_SIZE);
+        BroadcastResult result = client.broadcast(cluster, self, sizeMsg, true).requireComplete();
 
-        return delegate.size() + broadcast(cluster, self, sizeMsg).entrySet().stream()
-                .map(Map.Entry::getValue)
+        return delegate.size() + result.getResponses().values().stream()
                 .filter(response -> TYPE_SIZE.equals(response.getType()))
                 .mapToInt(Message::getPayloadAsInt)
                 .sum();
     }
 
-
+    /**
+     * Answers false as soon as one node is known to hold an entry: this node, a recent published count, or the first
+     * of the other nodes to answer with a count above zero.
+     */
     @Override
     public boolean isEmpty() {
-        return size() == 0;
+        if (!delegate.isEmpty()) {
+            return false;
+        }
+
+        SizeTracker tracker = sizeTracker;
+        List<Node> unknown = new ArrayList<>();
+
+        for (Node node : cluster.getAllNodesExcept(self)) {
+            Integer count = tracker == null ? null : tracker.get(node);
+
+            if (count == null) {
+                unknown.add(node);
+            } else if (count > 0) {
+                return false;
+            }
+        }
+
+        return !anyNonEmpty(unknown, tracker);
     }
 
     @Override
     public boolean containsKey(Object key) {
-        Node target = cluster.getNodeForKey(key);
+        Node target = readTarget(key);
 
         if (target.equals(self)) {
             // Key lives on the current node.
-            return delegate.containsKey(key);
+            return delegate.containsKey(key) || backups.containsKey(key);
         }
 
-        Message containsKeyMsg = new Message(TYPE_CONTAINS_KEY, key);
+        Message containsKeyMsg = new Message(TYPE_CONTAINS_KEY, key, codec);
         Message response;
 
         try {
@@ -79,75 +313,512 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
             return true;
         }
 
-        Message containsValueMsg = new Message(TYPE_CONTAINS_VALUE, value);
+        Message containsValueMsg = new Message(TYPE_CONTAINS_VALUE, value, codec);
+        BroadcastResult result = client.broadcast(cluster, self, containsValueMsg, true);
+
+        if (result.getResponses().values().stream().anyMatch(Message.YES::equals)) {
+            return true;
+        }
 
-        return broadcast(cluster, self, containsValueMsg).entrySet().stream()
-                .map(Map.Entry::getValue)
-                .anyMatch(Message.YES::equals);
+        // A node that did not answer only matters if no other node has the value.
+        result.requireComplete();
+        return false;
     }
 
     @Override
     public V get(Object key) {
-        return (V) get(key, cluster.getNodeForKey(key));
+        NearCache near = nearCache;
+
+        if (near == null) {
+            return (V) get(key, readTarget(key));
+        }
+
+        Node owner = cluster.getNodeForKey(key);
+
+        if (owner.equals(self)) {
+            return (V) readLocal(key);
+        }
+
+        Object value = near.get(key);
+
+        if (value == null) {
+            long stamp = near.stamp();
+            value = getTracked(key, owner);
+
+            if (value != null) {
+                near.put(key, value, stamp);
+            }
+        }
+
+        return (V) value;
     }
 
     @Override
     public V put(K key, V value) {
-        put(key, value, cluster.getNodeForKey(key));
+        invalidateNearCache(key);
+        Node[] replicas = getReplicas(key);
+        List<CompletableFuture<Message>> backupAcks = writeBackups(replicas,
+                new Message(TYPE_PUT_BACKUP, new Entry(key, value), codec), () -> backups.put(key, value));
+
+        put(key, value, replicas[0]);
+        awaitAcks(backupAcks);
         return value;
     }
 
     @Override
     public V remove(Object key) {
-        return (V) remove(key, cluster.getNodeForKey(key));
+        invalidateNearCache(key);
+        Node[] replicas = getReplicas(key);
+        List<CompletableFuture<Message>> backupAcks = writeBackups(replicas,
+                new Message(TYPE_REMOVE_BACKUP, key, codec), () -> backups.remove(key));
+
+        V previous = (V) remove(key, replicas[0]);
+        awaitAcks(backupAcks);
+        return previous;
     }
 
+    /**
+     * Keys are grouped by owner node and every node gets its share in batches of up to {@value #BATCH_SIZE} entries.
+     * All batches are sent before waiting for any acknowledgement.
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        m.entrySet().parallelStream().forEach(entry -> put(entry.getKey(), entry.getValue()));
+        invalidateNearCacheOf(m.keySet());
+        Map<Node, List<Entry>> entriesByNode = new HashMap<>();
+
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            entriesByNode.computeIfAbsent(cluster.getNodeForKey(entry.getKey()), node -> new ArrayList<>())
+                    .add(new Entry(entry.getKey(), entry.getValue()));
+        }
+
+        List<CompletableFuture<Message>> backupAcks = Collections.emptyList();
+
+        if (replicationFactor > 1) {
+            Map<Node, List<Entry>> entriesByBackup = groupByBackup(
+                    entriesByNode.values().stream().flatMap(List::stream).collect(Collectors.toList()), Entry::getKey);
+            backupAcks = consistent(sendEntries(entriesByBackup, TYPE_PUT_ALL_BACKUP, backups));
+        }
+
+        awaitAcks(sendEntries(entriesByNode, TYPE_PUT_ALL, delegate));
+        awaitAcks(backupAcks);
+
+        List<Entry> written = entriesByNode.get(self);
+
+        if (written != null) {
+            invalidateReadersOf(written.stream().map(Entry::getKey).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Fetches many keys with one batch message per owner node (split every {@value #BATCH_SIZE} keys). Keys without
+     * a value are left out of the result.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>();
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        groupByNode(keys).forEach((target, nodeKeys) -> {
+            if (target.equals(self)) {
+                for (Object key : nodeKeys) {
+                    Object value = delegate.get(key);
+
+                    if (value != null) {
+                        result.put((K) key, (V) value);
+                    }
+                }
+                return;
+            }
+
+            for (int from = 0; from < nodeKeys.size(); from += BATCH_SIZE) {
+                Object[] batch = nodeKeys.subList(from, Math.min(from + BATCH_SIZE, nodeKeys.size())).toArray();
+                responses.add(client.messageAsync(target, new Message(TYPE_GET_ALL, batch, codec)));
+            }
+        });
+
+        for (Message response : await(responses)) {
+            if (!TYPE_GET_ALL.equals(response.getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+            }
+
+            for (Entry entry : response.getPayload(Entry[].class)) {
+                result.put((K) entry.getKey(), (V) entry.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes many keys with one batch message per owner node (split every {@value #BATCH_SIZE} keys).
+     */
+    @Override
+    public void removeAll(Collection<? extends K> keys) {
+        invalidateNearCacheOf(keys);
+        List<CompletableFuture<Message>> backupAcks = Collections.emptyList();
+
+        if (replicationFactor > 1) {
+            backupAcks = consistent(sendKeys(groupByBackup(new ArrayList<Object>(keys), key -> key),
+                    TYPE_REMOVE_ALL_BACKUP, backups::remove));
+        }
+
+        Map<Node, List<Object>> keysByNode = groupByNode(keys);
+        awaitAcks(sendKeys(keysByNode, TYPE_REMOVE_ALL, delegate::remove));
+        awaitAcks(backupAcks);
+
+        if (keysByNode.containsKey(self)) {
+            invalidateReadersOf(keysByNode.get(self));
+        }
     }
 
     @Override
     public void clear() {
         Message clearMsg = new Message(TYPE_CLEAR);
-        broadcast(cluster,self, clearMsg);
+        BroadcastResult result = client.broadcast(cluster, self, clearMsg);
+        clearLocal();
+        result.requireComplete();
+    }
+
+    /**
+     * Drops everything this node holds: its entries, its backups and its near cache.
+     */
+    public void clearLocal() {
         delegate.clear();
+        backups.clear();
+        readers.clear();
+
+        NearCache near = nearCache;
+
+        if (near != null) {
+            near.clear();
+        }
     }
 
+    /**
+     * A view of the keys of the whole map. Iterating pages through the keys of every node, a chunk of
+     * {@value #SCAN_CHUNK_SIZE} at a time from each, with the next chunk of every node fetched while the current one
+     * is consumed, so they are never all held in memory here. {@code size()} and {@code contains} ask the map, and
+     * the iterator's {@code remove} removes from it.
+     */
     @Override
     public Set<K> keySet() {
-        return cluster.getAllNodes().parallelStream()
-                .map(this::keySet)
-                .flatMap(Stream::of)
-                .map(object -> (K) object)
-                .collect(Collectors.toSet());
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new ViewIterator<>(scan(true, null, null), entry -> (K) entry.getKey());
+            }
+
+            @Override
+            public int size() {
+                return MeshMapImpl.this.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
     }
 
+    /**
+     * A view of the values of the whole map, iterated like {@link #keySet()}.
+     */
     @Override
     public Collection<V> values() {
-        return entrySet().stream()
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList());
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ViewIterator<>(scan(false, null, null), entry -> (V) entry.getValue());
+            }
+
+            @Override
+            public int size() {
+                return MeshMapImpl.this.size();
+            }
+
+            @Override
+            public boolean contains(Object value) {
+                return containsValue(value);
+            }
+        };
     }
 
+    /**
+     * A view of the entries of the whole map, iterated like {@link #keySet()}. The entries are snapshots and cannot
+     * be written through.
+     */
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
-        Message dumpEntriesMsg = new Message(TYPE_DUMP_ENTRIES);
-        Set<Map.Entry<K, V>> entries = new HashSet<>();
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new ViewIterator<>(scan(false, null, null), entry -> (Map.Entry<K, V>) (Map.Entry<?, ?>) entry);
+            }
+
+            @Override
+            public int size() {
+                return MeshMapImpl.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                Object value = get(entry.getKey());
+                return value != null && value.equals(entry.getValue());
+            }
+        };
+    }
+
+    /**
+     * The entries that match the filter. Every node runs the filter over its own entries and only sends back those
+     * that match, a chunk of {@value #SCAN_CHUNK_SIZE} at a time, as the iterator consumes them. Close the iterator
+     * if it is not run to the end.
+     */
+    public CloseableIterator<Map.Entry<K, V>> scan(EntryFilter<? super K, ? super V> filter) {
+        return new ViewIterator<>(scan(false, filter, null), entry -> (Map.Entry<K, V>) (Map.Entry<?, ?>) entry);
+    }
+
+    /**
+     * The keys of the entries that match the filter, each with the projection of its value, which is computed on the
+     * node that holds the entry. See {@link #scan(EntryFilter)}.
+     */
+    public <R> CloseableIterator<Map.Entry<K, R>> scan(EntryFilter<? super K, ? super V> filter,
+                                                       EntryProjection<? super K, ? super V, ? extends R> projection) {
+        return new ViewIterator<>(scan(false, filter, projection), entry -> (Map.Entry<K, R>) (Map.Entry<?, ?>) entry);
+    }
+
+    /**
+     * Iterates over the entries of every node, a chunk of {@value #SCAN_CHUNK_SIZE} at a time from each, with the next
+     * chunk of every node fetched while the current one is consumed.
+     *
+     * @param keysOnly leave the values out, for iterating over the keys
+     */
+    private ScanIterator scan(boolean keysOnly, EntryFilter<?, ?> filter, EntryProjection<?, ?, ?> projection) {
+        Object[] open = {SCAN_CHUNK_SIZE, keysOnly, filter, projection};
+        Cursor local = new ScanCursor(delegate, keysOnly, filter, projection);
+        return new ScanIterator(client, codec, local, cluster.getAllNodesExcept(self), open);
+    }
+
+    /**
+     * Runs the aggregator over every entry of the map. Each node aggregates its own entries (see
+     * {@link #aggregateLocal(Aggregator)}) and sends back only its partial result; the partials are combined here.
+     */
+    public <A, R> R aggregate(Aggregator<? super K, ? super V, A, R> aggregator) {
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        for (Node node : cluster.getAllNodesExcept(self)) {
+            responses.add(client.messageAsync(node, new Message(TYPE_AGGREGATE, aggregator, codec)));
+        }
+
+        A result = aggregateLocal(aggregator);
+
+        for (Message response : await(responses)) {
+            if (!TYPE_AGGREGATE.equals(response.getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+            }
+
+            result = aggregator.combine(result, (A) response.getPayload(Object.class));
+        }
+
+        return aggregator.finish(result);
+    }
+
+    /**
+     * The partial result of the aggregator over this node's own entries. Nodes holding at least
+     * {@value #PARALLEL_AGGREGATION_THRESHOLD} entries split the work over the common fork-join pool, each worker
+     * accumulating its own partial.
+     */
+    public <A> A aggregateLocal(Aggregator<?, ?, A, ?> aggregator) {
+        Aggregator<Object, Object, A, ?> typed = (Aggregator<Object, Object, A, ?>) aggregator;
+        Stream<Map.Entry<Object, Object>> entries = delegate.size() >= PARALLEL_AGGREGATION_THRESHOLD
+                ? delegate.entrySet().parallelStream()
+                : delegate.entrySet().stream();
+
+        return entries.collect(
+                () -> new Partial<>(typed.create()),
+                (partial, entry) -> partial.value = typed.accumulate(partial.value, entry.getKey(), entry.getValue()),
+                (left, right) -> left.value = typed.combine(left.value, right.value)).value;
+    }
 
-        for (Map.Entry<Object, Object> localEntry : delegate.entrySet()) {
-            entries.add(new TypedEntry<>((K) localEntry.getKey(), (V) localEntry.getValue()));
+    /**
+     * Applies the processor to the key's entry on the node that owns it, in one round trip, and returns its result.
+     * Other writes of the key wait while it runs, so read-modify-write updates such as counters lose no increments.
+     * The request is sent once and never retried, so that a processor is not applied twice; if the connection fails
+     * this throws, and the processor may or may not have run.
+     */
+    public <R> R executeOnKey(K key, EntryProcessor<? super K, ? super V, R> processor) {
+        invalidateNearCache(key);
+        Node owner = cluster.getNodeForKey(key);
+
+        if (owner.equals(self)) {
+            return (R) processLocal(key, processor);
         }
 
-        for (Map.Entry<Node, Message> response : broadcast(cluster,self, dumpEntriesMsg).entrySet()) {
-            Entry[] remoteEntries = response.getValue().getPayload(Entry[].class);
+        Object[] request = {key, processor};
+        // Not client.message(): it retries after a failed connection, which may come after the owner applied it.
+        Message response = await(client.messageAsync(owner, new Message(TYPE_EXECUTE, request, codec)));
 
-            for (Entry remoteEntry : remoteEntries) {
-                entries.add(new TypedEntry<>((K) remoteEntry.getKey(), (V) remoteEntry.getValue()));
+        if (!TYPE_EXECUTE.equals(response.getType())) {
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+        }
+
+        return (R) response.getPayload(Object.class);
+    }
+
+    /**
+     * Applies the processor to each key's entry, with one message per owner node (split every {@value #BATCH_SIZE}
+     * keys). Keys whose processor returned null are left out of the result. Like {@link #executeOnKey}, messages are
+     * never retried.
+     */
+    public <R> Map<K, R> executeOnKeys(Collection<? extends K> keys, EntryProcessor<? super K, ? super V, R> processor) {
+        invalidateNearCacheOf(keys);
+        Map<K, R> result = new HashMap<>();
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        groupByNode(keys).forEach((target, nodeKeys) -> {
+            if (target.equals(self)) {
+                for (Object key : nodeKeys) {
+                    Object value = processLocal(key, processor);
+
+                    if (value != null) {
+                        result.put((K) key, (R) value);
+                    }
+                }
+                return;
+            }
+
+            for (int from = 0; from < nodeKeys.size(); from += BATCH_SIZE) {
+                Object[] request = {processor, nodeKeys.subList(from, Math.min(from + BATCH_SIZE, nodeKeys.size())).toArray()};
+                responses.add(client.messageAsync(target, new Message(TYPE_EXECUTE_ALL, request, codec)));
+            }
+        });
+
+        for (Message response : await(responses)) {
+            if (!TYPE_EXECUTE_ALL.equals(response.getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
             }
+
+            for (Entry entry : response.getPayload(Entry[].class)) {
+                result.put((K) entry.getKey(), (R) entry.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies the processor to a key this node owns, through the store's compute so that it is atomic with respect to
+     * other writes of the key. A changed entry is then written to the backups and invalidated in near caches.
+     */
+    public Object processLocal(Object key, EntryProcessor<?, ?, ?> processor) {
+        EntryProcessor<Object, Object, ?> typed = (EntryProcessor<Object, Object, ?>) processor;
+        ProcessedEntry[] processed = new ProcessedEntry[1];
+
+        delegate.compute(key, (k, value) -> {
+            // Stores without a compute of their own retry on contention; only the last attempt counts.
+            ProcessedEntry entry = new ProcessedEntry(k, value);
+            entry.result = typed.process(entry);
+            processed[0] = entry;
+            return entry.value;
+        });
+
+        ProcessedEntry entry = processed[0];
+
+        if (entry.changed) {
+            Object value = entry.value;
+            Message backup = value == null
+                    ? new Message(TYPE_REMOVE_BACKUP, key, codec)
+                    : new Message(TYPE_PUT_BACKUP, new Entry(key, value), codec);
+
+            awaitAcks(writeBackups(getReplicas(key), backup, () -> {
+                if (value == null) {
+                    backups.remove(key);
+                } else {
+                    backups.put(key, value);
+                }
+            }));
+            invalidateReaders(key);
+        }
+
+        return entry.result;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return (V) executeOnKey(key, new EntryProcessors.PutIfAbsent(value));
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return (V) executeOnKey(key, new EntryProcessors.Replace(value));
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return executeOnKey(key, new EntryProcessors.ReplaceIfEquals(oldValue, newValue));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return executeOnKey((K) key, new EntryProcessors.ReplaceIfEquals(value, null));
+    }
+
+    /**
+     * Atomic on the owner node when the function is {@link Serializable} (such as a lambda cast to
+     * {@code Function & Serializable}); otherwise computed here from a get and a put, like {@link Map}.
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (!(mappingFunction instanceof Serializable)) {
+            return MeshMap.super.computeIfAbsent(key, mappingFunction);
+        }
+
+        return (V) executeOnKey(key, new EntryProcessors.ComputeIfAbsent((Function<Object, Object>) mappingFunction));
+    }
+
+    /**
+     * Atomic on the owner node when the function is {@link Serializable}; see {@link #computeIfAbsent}.
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (!(remappingFunction instanceof Serializable)) {
+            return MeshMap.super.computeIfPresent(key, remappingFunction);
+        }
+
+        return (V) executeOnKey(key, new EntryProcessors.Compute((BiFunction<Object, Object, Object>) remappingFunction, true));
+    }
+
+    /**
+     * Atomic on the owner node when the function is {@link Serializable}; see {@link #computeIfAbsent}.
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (!(remappingFunction instanceof Serializable)) {
+            return MeshMap.super.compute(key, remappingFunction);
         }
 
-        return entries;
+        return (V) executeOnKey(key, new EntryProcessors.Compute((BiFunction<Object, Object, Object>) remappingFunction, false));
+    }
+
+    /**
+     * Atomic on the owner node when the function is {@link Serializable}; see {@link #computeIfAbsent}.
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (!(remappingFunction instanceof Serializable)) {
+            return MeshMap.super.merge(key, value, remappingFunction);
+        }
+
+        return (V) executeOnKey(key, new EntryProcessors.Merge(value, (BiFunction<Object, Object, Object>) remappingFunction));
+    }
+
+    @Override
+    public AsyncMeshMap<K, V> async() {
+        return async;
     }
 
     @Override
@@ -156,93 +827,505 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
                 .map(entry -> entry.getKey() + ":" + entry.getValue()).toArray(String[]::new)) + "]";
     }
 
+    /**
+     * Pulls the entries this node now owns. Each of its tokens took over a range that belonged to another node before
+     * it joined; every such node is asked once for all of the ranges it gave up, and streams the matching entries
+     * back in chunks of {@value #BATCH_SIZE}. The next chunk is only requested once the previous one is stored, and
+     * the source only deletes a chunk once it has been acknowledged that way.
+     *
+     * A node restarted on a persistent {@link LocalStore} with its old ID already has its entries, so this only pulls
+     * what was written elsewhere while it was away (which replaces what it reloaded). Reloaded keys that now belong to
+     * other nodes are dropped: those nodes have been taking writes for them since. With replication, the source holds
+     * every key of the pulled ranges, having promoted its backups, so reloaded keys it does not send back were removed
+     * while this node was away and are removed here too. Without replication the source only has what was written
+     * while this node was away, and a key removed in that time comes back from the reloaded store.
+     */
     public void open() {
-        Node successor = cluster.getSuccessorNode(self);
+        RoutingTable table = cluster.getRoutingTable();
+        boolean reloaded = !delegate.isEmpty();
+
+        if (reloaded) {
+            delegate.keySet().removeIf(key -> !self.equals(table.getNodeForKey(key)));
+        }
+
+        KeyHasher reconcile = reloaded && replicationFactor > 1 ? table.getHasher() : null;
+        table.getPullRanges(self).entrySet().parallelStream()
+                .forEach(source -> transferRanges(source.getKey(), source.getValue(), reconcile));
+    }
+
+    /**
+     * Leaves the cluster, see {@link #leave(HandoffListener)}.
+     */
+    @Override
+    public void close() {
+        SizeTracker tracker = sizeTracker;
+
+        if (tracker != null) {
+            tracker.close();
+        }
+
+        leave(HandoffListener.NONE);
+        rebalancer.shutdownNow();
+        delegate.close();
+    }
+
+    /**
+     * Hands every local entry to the node that owns its key once this node is off the ring, then drops out of
+     * discovery and says BYE. Entries go out in GZIP compressed batches of up to {@value #BATCH_SIZE}, pipelined per
+     * target node with at most {@value #HANDOFF_WINDOW} batches unacknowledged at a time. The listener hears about
+     * each acknowledged batch, out of the number of entries the store held when the handoff started. Every target
+     * then confirms it received as many entries as were sent; if one does not, this throws and the node stays in the
+     * cluster with its data.
+     */
+    public void leave(HandoffListener listener) {
+        RoutingTable remaining = cluster.getRoutingTable().without(self);
+
+        if (remaining.size() > 0) {
+            handoff(remaining, listener);
+        }
+
+        cluster.leave(self);
+        Membership current = membership;
+
+        if (current != null) {
+            current.leave();
+        }
+
+        client.broadcast(cluster, self, Message.BYE);
+        delegate.clear();
+    }
 
-        // If there is no successor, there is nothing to do.
-        if (successor == null) {
+    public CachedMeshMapCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Brings the replicas held here in line with the current ring, when membership changes. Backups of keys this
+     * node now owns (because their owner left or was lost) become its own entries, backups of keys it no longer
+     * replicates are dropped, and its own entries are copied to the nodes that have become their replicas since the
+     * last change.
+     */
+    public void rebalanceReplicas() {
+        RoutingTable table = cluster.getRoutingTable();
+        RoutingTable previous = replicatedOn;
+        replicatedOn = table;
+
+        if (replicationFactor == 1) {
             return;
         }
 
-        // Ask the successor for their key set.
-        Object[] keySet = keySet(successor);
+        backups.forEach((key, value) -> {
+            Node[] replicas = table.getReplicasForKey(key, replicationFactor);
 
-        // Transfer the keys from the successor node that should live on this node.
-        List<Object> keysToTransfer = Stream.of(keySet)
-                .filter(key -> {
-                    int hash = key.hashCode() & Integer.MAX_VALUE;
+            if (replicas[0].equals(self)) {
+                delegate.putIfAbsent(key, value);
+                backups.remove(key, value);
+            } else if (!Arrays.asList(replicas).contains(self)) {
+                backups.remove(key, value);
+            }
+        });
 
-                    if (self.getId() > successor.getId()) {
-                        // The successor is the first node (circular node list)
-                        return hash <= self.getId() && hash > successor.getId();
-                    }
+        Map<Node, List<Entry>> entriesByNewReplica = new HashMap<>();
+
+        delegate.forEach((key, value) -> {
+            Node[] replicas = table.getReplicasForKey(key, replicationFactor);
+            List<Node> before = previous == null
+                    ? Collections.emptyList()
+                    : Arrays.asList(previous.getReplicasForKey(key, replicationFactor));
+
+            for (int i = 1; i < replicas.length; i++) {
+                if (!before.contains(replicas[i])) {
+                    entriesByNewReplica.computeIfAbsent(replicas[i], node -> new ArrayList<>()).add(new Entry(key, value));
+                }
+            }
+        });
 
-                    return hash <= self.getId();
-                })
-                .collect(Collectors.toList());
+        try {
+            awaitAcks(sendEntries(entriesByNewReplica, TYPE_PUT_ALL_BACKUP, backups));
+        } catch (RuntimeException e) {
+            // Not every new replica has its copies yet; the next rebalance has to send them again.
+            if (replicatedOn == table) {
+                replicatedOn = previous;
+            }
 
-        // Store the values on the current node.
-        keysToTransfer.forEach(key -> delegate.put(key, get(key, successor)));
+            throw e;
+        }
+    }
 
-        // Delete the keys from the remote node now that the keys are transferred.
-        keysToTransfer.forEach(key -> remove(key, successor));
+    /**
+     * Runs {@link #rebalanceReplicas()} on the map's own thread and returns at once, so that a HI or BYE can be
+     * acknowledged without waiting for replicas to be copied. Changes that arrive while a rebalance is still queued
+     * are folded into it, since it works from the ring as it is when it starts. A rebalance that fails, leaving some
+     * keys with fewer than {@code replicationFactor} copies, is tried again after a pause that doubles every time, up
+     * to {@value #REBALANCE_RETRY_MAX_DELAY_MILLIS} ms.
+     */
+    public void rebalanceReplicasLater() {
+        scheduleRebalance(0);
     }
 
-    @Override
-    public void close() {
-        Node successor = cluster.getSuccessorNode(self);
+    private void scheduleRebalance(long delayMillis) {
+        if (!rebalancePending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            rebalancer.schedule(() -> {
+                rebalancePending.set(false);
+
+                try {
+                    rebalanceReplicas();
+                } catch (RuntimeException e) {
+                    scheduleRebalance(delayMillis == 0
+                            ? REBALANCE_RETRY_INITIAL_DELAY_MILLIS
+                            : Math.min(delayMillis * 2, REBALANCE_RETRY_MAX_DELAY_MILLIS));
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The map is closed; there is nothing left to replicate.
+            rebalancePending.set(false);
+        }
+    }
+
+    /**
+     * Remembers that {@code reader} cached the value of a key this node owns.
+     */
+    public void trackReader(Object key, Node reader) {
+        readers.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(reader);
+    }
 
-        // If there is no successor, there is nothing to do.
-        if (successor == null) {
+    /**
+     * Tells the nodes that cached any of these keys (owned here and just written) to drop them. Each reader gets one
+     * INVALIDATE for all of its keys, and has to read them again to be tracked again.
+     */
+    public void invalidateReadersOf(Collection<?> keys) {
+        if (readers.isEmpty()) {
             return;
         }
 
-        // Transfer the data from this node to the successor node.
-        delegate.forEach((key, value) -> put(key, value, successor));
+        Map<Node, List<Object>> keysByReader = new HashMap<>();
+
+        for (Object key : keys) {
+            Set<Node> keyReaders = readers.remove(key);
+
+            if (keyReaders != null) {
+                keyReaders.forEach(reader -> keysByReader.computeIfAbsent(reader, node -> new ArrayList<>()).add(key));
+            }
+        }
+
+        keysByReader.forEach((reader, readerKeys) -> {
+            if (reader.equals(self)) {
+                invalidateNearCacheOf(readerKeys);
+            } else {
+                // Best effort: a reader that cannot be reached will see its entry expire.
+                client.messageAsync(reader, new Message(TYPE_INVALIDATE, readerKeys.toArray(), codec));
+            }
+        });
+    }
+
+    public void invalidateReaders(Object key) {
+        if (!readers.isEmpty()) {
+            invalidateReadersOf(Collections.singletonList(key));
+        }
+    }
+
+    public void invalidateNearCacheOf(Collection<?> keys) {
+        NearCache near = nearCache;
+
+        if (near != null) {
+            near.invalidateAll(keys);
+        }
+    }
+
+    private void invalidateNearCache(Object key) {
+        NearCache near = nearCache;
+
+        if (near != null) {
+            near.invalidate(key);
+        }
+    }
+
+    /**
+     * Records the entry count another node published, if this node tracks sizes.
+     */
+    public void recordSize(Node node, int count) {
+        SizeTracker tracker = sizeTracker;
+
+        if (tracker != null) {
+            tracker.record(node, count);
+        }
+    }
+
+    private void publishSize(int count) {
+        Object[] report = {self.toString(), count};
+
+        for (Node node : cluster.getAllNodesExcept(self)) {
+            client.messageAsync(node, new Message(TYPE_SIZE_REPORT, report, codec));
+        }
     }
 
-/*    private Node getNodeForKey(Object key) {
-        int hash = key.hashCode() & Integer.MAX_VALUE;
-        List<Node> nodes = cluster.getAllNodes();
+    private boolean anyNonEmpty(List<Node> nodes, SizeTracker tracker) {
+        if (nodes.isEmpty()) {
+            return false;
+        }
+
+        CompletableFuture<Boolean> nonEmpty = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(nodes.size());
 
         for (Node node : nodes) {
-            if (hash <= node.getId()) {
-                return node;
+            client.messageAsync(node, new Message(TYPE_SIZE)).whenComplete((response, error) -> {
+                if (error != null) {
+                    nonEmpty.completeExceptionally(error);
+                } else if (!TYPE_SIZE.equals(response.getType())) {
+                    nonEmpty.completeExceptionally(
+                            new MeshMapRuntimeException("Unexpected response from remote node: " + response));
+                } else {
+                    int count = response.getPayloadAsInt();
+
+                    if (tracker != null) {
+                        tracker.record(node, count);
+                    }
+
+                    if (count > 0) {
+                        nonEmpty.complete(true);
+                    } else if (pending.decrementAndGet() == 0) {
+                        nonEmpty.complete(false);
+                    }
+                }
+            });
+        }
+
+        try {
+            return nonEmpty.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MeshMapRuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new MeshMapRuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * The entries stored on this node. Remote requests are applied here directly rather than through the map, which
+     * would route them again.
+     */
+    public LocalStore getLocalStore() {
+        return delegate;
+    }
+
+    /**
+     * The copies this node keeps of keys owned by other nodes, when replication is on.
+     */
+    public Map<Object, Object> getBackupStore() {
+        return backups;
+    }
+
+    private Node[] getReplicas(Object key) {
+        return cluster.getRoutingTable().getReplicasForKey(key, replicationFactor);
+    }
+
+    private Node readTarget(Object key) {
+        if (!replicaReads || replicationFactor == 1) {
+            return cluster.getNodeForKey(key);
+        }
+
+        Node[] replicas = getReplicas(key);
+
+        for (Node replica : replicas) {
+            if (replica.equals(self)) {
+                return self;
+            }
+        }
+
+        return replicas[ThreadLocalRandom.current().nextInt(replicas.length)];
+    }
+
+    /**
+     * Starts writing to every backup replica (all but the first) and returns the acknowledgements the caller has to
+     * wait for under the current write consistency.
+     */
+    private List<CompletableFuture<Message>> writeBackups(Node[] replicas, Message message, Runnable localWrite) {
+        List<CompletableFuture<Message>> acks = new ArrayList<>(replicas.length - 1);
+
+        for (int i = 1; i < replicas.length; i++) {
+            if (replicas[i].equals(self)) {
+                localWrite.run();
+            } else {
+                acks.add(client.messageAsync(replicas[i], message));
+            }
+        }
+
+        return consistent(acks);
+    }
+
+    private List<CompletableFuture<Message>> consistent(List<CompletableFuture<Message>> backupAcks) {
+        return writeConsistency == WriteConsistency.ALL ? backupAcks : Collections.emptyList();
+    }
+
+    private <T> Map<Node, List<T>> groupByBackup(Collection<T> items, Function<T, Object> keyOf) {
+        RoutingTable table = cluster.getRoutingTable();
+        Map<Node, List<T>> itemsByNode = new HashMap<>();
+
+        for (T item : items) {
+            Node[] replicas = table.getReplicasForKey(keyOf.apply(item), replicationFactor);
+
+            for (int i = 1; i < replicas.length; i++) {
+                itemsByNode.computeIfAbsent(replicas[i], node -> new ArrayList<>()).add(item);
+            }
+        }
+
+        return itemsByNode;
+    }
+
+    private List<CompletableFuture<Message>> sendEntries(Map<Node, List<Entry>> entriesByNode, String type, Map<Object, Object> local) {
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        entriesByNode.forEach((target, entries) -> {
+            if (target.equals(self)) {
+                entries.forEach(entry -> local.put(entry.getKey(), entry.getValue()));
+                return;
+            }
+
+            for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+                Entry[] batch = entries.subList(from, Math.min(from + BATCH_SIZE, entries.size())).toArray(new Entry[0]);
+                responses.add(client.messageAsync(target, new Message(type, batch, codec)));
+            }
+        });
+
+        return responses;
+    }
+
+    private List<CompletableFuture<Message>> sendKeys(Map<Node, List<Object>> keysByNode, String type, Consumer<Object> local) {
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        keysByNode.forEach((target, nodeKeys) -> {
+            if (target.equals(self)) {
+                nodeKeys.forEach(local);
+                return;
+            }
+
+            for (int from = 0; from < nodeKeys.size(); from += BATCH_SIZE) {
+                Object[] batch = nodeKeys.subList(from, Math.min(from + BATCH_SIZE, nodeKeys.size())).toArray();
+                responses.add(client.messageAsync(target, new Message(type, batch, codec)));
+            }
+        });
+
+        return responses;
+    }
+
+    private static void awaitAcks(List<CompletableFuture<Message>> responses) {
+        for (Message ack : await(responses)) {
+            if (!Message.ACK.equals(ack)) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + ack);
+            }
+        }
+    }
+
+    /**
+     * @param reconcile if not null, reloaded keys in the ranges that the source does not send are removed; the hasher
+     *                  tells which keys are in the ranges.
+     */
+    private void transferRanges(Node source, HashRanges ranges, KeyHasher reconcile) {
+        // Taken before the pull, so that keys written here in the meantime are not mistaken for stale ones.
+        Set<Object> stale = reconcile == null ? null : keysIn(ranges, reconcile);
+        Object[] ranged = ranges.toPayload();
+        Object[] request = new Object[ranged.length + 1];
+        request[0] = BATCH_SIZE;
+        System.arraycopy(ranged, 0, request, 1, ranged.length);
+
+        try {
+            Message response = client.message(source, new Message(TYPE_TRANSFER_RANGE, request, codec));
+
+            while (true) {
+                if (!TYPE_TRANSFER_RANGE.equals(response.getType())) {
+                    throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+                }
+
+                CursorRegistry.Chunk chunk = CursorRegistry.Chunk.fromPayload(response.getPayload(Object[].class));
+
+                if (chunk.isLast()) {
+                    if (stale != null) {
+                        stale.forEach(delegate::remove);
+                    }
+
+                    return;
+                }
+
+                for (Entry entry : chunk.getEntries()) {
+                    delegate.put(entry.getKey(), entry.getValue());
+
+                    if (stale != null) {
+                        stale.remove(entry.getKey());
+                    }
+                }
+
+                Object[] ack = {chunk.getCursorId(), chunk.getSequence()};
+                response = client.message(source, new Message(TYPE_TRANSFER_NEXT, ack, codec));
+            }
+        } catch (IOException e) {
+            throw new MeshMapRuntimeException(e);
+        }
+    }
+
+    private Set<Object> keysIn(HashRanges ranges, KeyHasher hasher) {
+        Set<Object> keys = new HashSet<>();
+
+        delegate.forEach((key, value) -> {
+            if (ranges.contains(hasher.hash(key))) {
+                keys.add(key);
             }
+        });
+
+        return keys;
+    }
+
+    private void handoff(RoutingTable remaining, HandoffListener listener) {
+        Handoff handoff = new Handoff(listener, delegate.size());
+        delegate.forEach((key, value) -> handoff.add(remaining.getNodeForKey(key), new Entry(key, value)));
+        handoff.finish();
+    }
+
+    private Map<Node, List<Object>> groupByNode(Collection<?> keys) {
+        Map<Node, List<Object>> keysByNode = new HashMap<>();
+
+        for (Object key : keys) {
+            keysByNode.computeIfAbsent(cluster.getNodeForKey(key), node -> new ArrayList<>()).add(key);
         }
 
-        return nodes.get(0);
+        return keysByNode;
     }
 
-    private Node getSuccessorNode() {
-        List<Node> nodes = cluster.getAllNodes();
+    private static List<Message> await(List<CompletableFuture<Message>> responses) {
+        List<Message> messages = new ArrayList<>(responses.size());
 
-        if (nodes.size() <= 1) {
-            return null;
+        for (CompletableFuture<Message> response : responses) {
+            messages.add(await(response));
         }
 
-        int selfIndex = Collections.binarySearch(nodes, self, Comparator.comparingInt(Node::getId));
-        int successorIndex = selfIndex + 1;
+        return messages;
+    }
 
-        // Find the successor node.
-        if (successorIndex > nodes.size() - 1) {
-            return nodes.get(0);
-        } else {
-            return nodes.get(successorIndex);
+    private static Message await(CompletableFuture<Message> response) {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MeshMapRuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new MeshMapRuntimeException(e.getCause());
         }
-    }*/
+    }
 
     private Object get(Object key, Node target) {
         if (target.equals(self)) {
-            // Value is stored on the local server.
-            return delegate.get(key);
+            // Value is stored on the local server, as its owner or as a backup.
+            return readLocal(key);
         }
 
-        Message getMsg = new Message(TYPE_GET, key);
+        Message getMsg = new Message(TYPE_GET, key, codec);
         Message response;
 
         try {
-            response = client.message(target, getMsg);
+            response = client.messageHedged(target, getMsg);
         } catch (IOException e) {
             throw new MeshMapRuntimeException(e);
         }
@@ -257,10 +1340,12 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
     private Object put(Object key, Object value, Node target) {
         if (target.equals(self)) {
             // Value is stored on the local server.
-            return delegate.put(key, value);
+            Object previous = delegate.put(key, value);
+            invalidateReaders(key);
+            return previous;
         }
 
-        Message putMsg = new Message(TYPE_PUT, new Entry(key, value));
+        Message putMsg = new Message(TYPE_PUT, new Entry(key, value), codec);
         Message response;
 
         try {
@@ -279,10 +1364,12 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
     private Object remove(Object key, Node target) {
         if (target.equals(self)) {
             // Value is stored on the local server.
-            return delegate.remove(key);
+            Object previous = delegate.remove(key);
+            invalidateReaders(key);
+            return previous;
         }
 
-        Message removeMsg = new Message(TYPE_REMOVE, key);
+        Message removeMsg = new Message(TYPE_REMOVE, key, codec);
         Message response;
 
         try {
@@ -298,22 +1385,27 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
         return response.getPayload(Object.class);
     }
 
-    private Object[] keySet(Node target) {
-        if (target.equals(self)) {
-            // Key is on local server.
-            return delegate.keySet().toArray();
-        }
-
-        Message keySetMsg = new Message(TYPE_KEY_SET);
+    private Object getTracked(Object key, Node owner) {
+        Object[] request = {key, self.toString()};
+        Message response;
 
         try {
-            Message response = client.message(target, keySetMsg);
-            return response.getPayload(Object[].class);
+            response = client.messageHedged(owner, new Message(TYPE_GET_TRACKED, request, codec));
         } catch (IOException e) {
             throw new MeshMapRuntimeException(e);
         }
+
+        if (!TYPE_GET.equals(response.getType())) {
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+        }
+
+        return response.getPayload(Object.class);
     }
 
+    private Object readLocal(Object key) {
+        Object value = delegate.get(key);
+        return value != null ? value : backups.get(key);
+    }
 
     public static class Entry implements Serializable {
         final Object key;
@@ -334,28 +1426,317 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V> {
     }
 
 
-    private static class TypedEntry<K, V> implements Map.Entry<K, V> {
-        final K key;
-        final V value;
+    private class AsyncView implements AsyncMeshMap<K, V> {
+        @Override
+        public CompletableFuture<V> getAsync(K key) {
+            NearCache near = nearCache;
+
+            if (near != null && !cluster.getNodeForKey(key).equals(self)) {
+                Object cached = near.get(key);
+
+                if (cached != null) {
+                    return CompletableFuture.completedFuture((V) cached);
+                }
+
+                long stamp = near.stamp();
+                Object[] request = {key, self.toString()};
+
+                return client.messageAsync(cluster.getNodeForKey(key), new Message(TYPE_GET_TRACKED, request, codec))
+                        .thenApply(response -> {
+                            Object value = expect(TYPE_GET, response).getPayload(Object.class);
+
+                            if (value != null) {
+                                near.put(key, value, stamp);
+                            }
+
+                            return (V) value;
+                        });
+            }
+
+            Node target = readTarget(key);
+
+            if (target.equals(self)) {
+                return CompletableFuture.completedFuture((V) readLocal(key));
+            }
+
+            return client.messageAsync(target, new Message(TYPE_GET, key, codec))
+                    .thenApply(response -> (V) expect(TYPE_GET, response).getPayload(Object.class));
+        }
+
+        @Override
+        public CompletableFuture<V> putAsync(K key, V value) {
+            invalidateNearCache(key);
+            Node[] replicas = getReplicas(key);
+            List<CompletableFuture<Message>> backupAcks = writeBackups(replicas,
+                    new Message(TYPE_PUT_BACKUP, new Entry(key, value), codec), () -> backups.put(key, value));
+            Node target = replicas[0];
+            CompletableFuture<V> written;
+
+            if (target.equals(self)) {
+                delegate.put(key, value);
+                invalidateReaders(key);
+                written = CompletableFuture.completedFuture(value);
+            } else {
+                written = client.messageAsync(target, new Message(TYPE_PUT, new Entry(key, value), codec))
+                        .thenApply(response -> {
+                            expect(Message.TYPE_ACK, response);
+                            return value;
+                        });
+            }
+
+            return withBackups(written, backupAcks);
+        }
+
+        @Override
+        public CompletableFuture<V> removeAsync(K key) {
+            invalidateNearCache(key);
+            Node[] replicas = getReplicas(key);
+            List<CompletableFuture<Message>> backupAcks = writeBackups(replicas,
+                    new Message(TYPE_REMOVE_BACKUP, key, codec), () -> backups.remove(key));
+            Node target = replicas[0];
+            CompletableFuture<V> removed;
+
+            if (target.equals(self)) {
+                removed = CompletableFuture.completedFuture((V) delegate.remove(key));
+                invalidateReaders(key);
+            } else {
+                removed = client.messageAsync(target, new Message(TYPE_REMOVE, key, codec))
+                        .thenApply(response -> (V) expect(TYPE_REMOVE, response).getPayload(Object.class));
+            }
+
+            return withBackups(removed, backupAcks);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> containsKeyAsync(K key) {
+            Node target = readTarget(key);
+
+            if (target.equals(self)) {
+                return CompletableFuture.completedFuture(delegate.containsKey(key) || backups.containsKey(key));
+            }
+
+            return client.messageAsync(target, new Message(TYPE_CONTAINS_KEY, key, codec))
+                    .thenApply(Message.YES::equals);
+        }
+
+        @Override
+        public CompletableFuture<Integer> sizeAsync() {
+            CompletableFuture<Integer> size = CompletableFuture.completedFuture(delegate.size());
+
+            for (Node node : cluster.getAllNodesExcept(self)) {
+                CompletableFuture<Integer> nodeSize = client.messageAsync(node, new Message(TYPE_SIZE))
+                        .thenApply(response -> expect(TYPE_SIZE, response).getPayloadAsInt());
+                size = size.thenCombine(nodeSize, Integer::sum);
+            }
+
+            return size;
+        }
+
+        private <T> CompletableFuture<T> withBackups(CompletableFuture<T> primary, List<CompletableFuture<Message>> backupAcks) {
+            if (backupAcks.isEmpty()) {
+                return primary;
+            }
+
+            CompletableFuture<?>[] acks = backupAcks.stream()
+                    .map(ack -> ack.thenApply(response -> expect(Message.TYPE_ACK, response)))
+                    .toArray(CompletableFuture[]::new);
+
+            return primary.thenCombine(CompletableFuture.allOf(acks), (result, ignored) -> result);
+        }
+
+        private Message expect(String type, Message response) {
+            if (!type.equals(response.getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+            }
+
+            return response;
+        }
+    }
+
+
+    /**
+     * One leaving node's handoff. Entries are buffered per target and sent as soon as a batch is full, with at most
+     * {@value #HANDOFF_WINDOW} batches awaiting their ack at a time, so that a large store is never all on the heap.
+     */
+    private class Handoff {
+        final String id = UUID.randomUUID().toString();
+        final HandoffListener listener;
+        final long total;
+        final Map<Node, Batches> targets = new HashMap<>();
+        final Semaphore window = new Semaphore(HANDOFF_WINDOW);
+        final AtomicLong transferred = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Handoff(HandoffListener listener, long total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        void add(Node target, Entry entry) {
+            Batches batches = targets.computeIfAbsent(target, node -> new Batches());
+            batches.next.add(entry);
+
+            if (batches.next.size() == BATCH_SIZE) {
+                send(target, batches);
+            }
+        }
+
+        /**
+         * Sends what is left, waits for every ack and then has each target confirm the number of entries it got.
+         */
+        void finish() {
+            targets.forEach((target, batches) -> {
+                if (!batches.next.isEmpty()) {
+                    send(target, batches);
+                }
+            });
+
+            // Every permit back means every batch has been answered.
+            acquire(HANDOFF_WINDOW);
+            checkFailure();
+
+            targets.forEach((target, batches) -> {
+                Object[] done = {id, batches.sent};
+
+                try {
+                    Message confirmation = client.message(target, new Message(TYPE_HANDOFF_DONE, done, codec));
+
+                    if (!Message.YES.equals(confirmation)) {
+                        throw new MeshMapRuntimeException(
+                                "Node " + target + " did not confirm receiving " + batches.sent + " entries");
+                    }
+                } catch (IOException e) {
+                    throw new MeshMapRuntimeException(e);
+                }
+            });
+        }
+
+        private void send(Node target, Batches batches) {
+            acquire(1);
+            checkFailure();
+
+            Entry[] batch = batches.next.toArray(new Entry[0]);
+            batches.next.clear();
+            batches.sent += batch.length;
+            Object[] payload = {id, batches.sequence++, Gzip.compress(codec.encode(batch))};
+
+            client.messageAsync(target, new Message(TYPE_HANDOFF, payload, codec)).whenComplete((ack, error) -> {
+                if (error != null) {
+                    failure.compareAndSet(null, error);
+                } else if (!Message.ACK.equals(ack)) {
+                    failure.compareAndSet(null,
+                            new MeshMapRuntimeException("Unexpected response from remote node: " + ack));
+                } else {
+                    listener.progress(transferred.addAndGet(batch.length), total);
+                }
+
+                window.release();
+            });
+        }
+
+        private void acquire(int permits) {
+            try {
+                window.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MeshMapRuntimeException(e);
+            }
+        }
+
+        private void checkFailure() {
+            Throwable cause = failure.get();
+
+            if (cause != null) {
+                throw new MeshMapRuntimeException(cause);
+            }
+        }
+    }
+
+    private static class Batches {
+        final List<Entry> next = new ArrayList<>();
+        int sequence;
+        long sent;
+    }
+
+    /**
+     * The entry an {@link EntryProcessor} sees; remembers whether the processor set a new value.
+     */
+    private static class ProcessedEntry implements Map.Entry<Object, Object> {
+        final Object key;
+        Object value;
+        Object result;
+        boolean changed;
 
-        TypedEntry(K key, V value) {
+        ProcessedEntry(Object key, Object value) {
             this.key = key;
             this.value = value;
         }
 
         @Override
-        public K getKey() {
+        public Object getKey() {
             return key;
         }
 
         @Override
-        public V getValue() {
+        public Object getValue() {
             return value;
         }
 
         @Override
-        public V setValue(V value) {
-            throw new UnsupportedOperationException();
+        public Object setValue(Object value) {
+            Object previous = this.value;
+            this.value = value;
+            changed = true;
+            return previous;
+        }
+    }
+
+    private static class Partial<A> {
+        A value;
+
+        Partial(A value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Presents the entries of a scan as keys, values or entries, and removes from the map through it.
+     */
+    private class ViewIterator<T> implements CloseableIterator<T> {
+        private final ScanIterator scan;
+        private final Function<Map.Entry<Object, Object>, T> view;
+        private Object lastKey;
+
+        ViewIterator(ScanIterator scan, Function<Map.Entry<Object, Object>, T> view) {
+            this.scan = scan;
+            this.view = view;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return scan.hasNext();
+        }
+
+        @Override
+        public T next() {
+            Map.Entry<Object, Object> entry = scan.next();
+            lastKey = entry.getKey();
+            return view.apply(entry);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+
+            MeshMapImpl.this.remove(lastKey);
+            lastKey = null;
+        }
+
+        @Override
+        public void close() {
+            scan.close();
         }
     }
 }
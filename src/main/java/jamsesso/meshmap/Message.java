@@ -2,17 +2,29 @@ package jamsesso.meshmap;
 
 
 
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Codecs;
+
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Messages have the following byte format.
  *
- * +-----------------+------------------+----------------+
- * | 32 byte type ID | 4 byte size (=X) | X byte payload |
- * +-----------------+------------------+----------------+
+ * +-----------------+-----------------------+-----------------+------------------+----------------+
+ * | 32 byte type ID | 4 byte correlation ID | 1 byte codec ID | 4 byte size (=X) | X byte payload |
+ * +-----------------+-----------------------+-----------------+------------------+----------------+
+ *
+ * The correlation ID is chosen by the client and echoed back by the server on the response, which lets a
+ * connection carry many requests at once and match responses that come back out of order.
+ *
+ * The codec ID names the {@link Codec} the payload was written with (see {@link Codecs}).
  */
 
 
@@ -23,6 +35,7 @@ public class Message {
   public static final String TYPE_ERR = "ERR";
   public static final String TYPE_YES = "YES";
   public static final String TYPE_NO = "NO";
+  public static final String TYPE_PING = "PING";
 
   public static final Message HI = new Message(TYPE_HI);
   public static final Message BYE = new Message(TYPE_BYE);
@@ -30,11 +43,22 @@ public class Message {
   public static final Message ERR = new Message(TYPE_ERR);
   public static final Message YES = new Message(TYPE_YES);
   public static final Message NO = new Message(TYPE_NO);
+  public static final Message PING = new Message(TYPE_PING);
 
   private static final int MESSAGE_TYPE = 32;
+  private static final int MESSAGE_ID = 4;
+  private static final int MESSAGE_CODEC = 1;
   private static final int MESSAGE_SIZE = 4;
+  public static final int HEADER_SIZE = MESSAGE_TYPE + MESSAGE_ID + MESSAGE_CODEC + MESSAGE_SIZE;
+  /**
+   * The largest payload a peer may announce, well above the largest batch the map sends. The size comes off the wire
+   * before anything is allocated for it, so a corrupt or hostile header must not be able to ask for gigabytes.
+   */
+  public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
 
   private final String type;
+  private final int id;
+  private final byte codec;
   private final int length;
   private final byte[] payload;
 
@@ -43,18 +67,42 @@ public class Message {
   }
 
   public Message(String type, Object payload) {
-    this(type, toBytes(payload));
+    this(type, payload, Codecs.getDefault());
+  }
+
+  public Message(String type, Object payload, Codec codec) {
+    this(type, 0, codec.getId(), codec.encode(payload));
   }
 
   public Message(String type, byte[] payload) {
+    this(type, 0, Codecs.getDefault().getId(), payload);
+  }
+
+  /**
+   * A message whose payload was already encoded with the given codec, such as a value a store keeps in encoded form.
+   */
+  public static Message ofEncoded(String type, Codec codec, byte[] payload) {
+    return new Message(type, 0, codec.getId(), payload);
+  }
+
+  private Message(String type, int id, byte codec, byte[] payload) {
     checkType(type);
     this.type = type;
+    this.id = id;
+    this.codec = codec;
     this.length = payload.length;
     this.payload = payload;
   }
 
+  /**
+   * Returns a copy of this message carrying the given correlation ID.
+   */
+  public Message withId(int id) {
+    return id == this.id ? this : new Message(type, id, codec, payload);
+  }
+
   public <T> T getPayload(Class<T> clazz) {
-    return clazz.cast(fromBytes(payload));
+    return clazz.cast(getCodec().decode(payload));
   }
 
   public int getPayloadAsInt() {
@@ -62,53 +110,177 @@ public class Message {
   }
 
   public void write(OutputStream outputStream) throws IOException {
-    ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_TYPE + MESSAGE_SIZE + length);
-    byte[] typeBytes = type.getBytes();
-    byte[] remainingBytes = new byte[MESSAGE_TYPE - typeBytes.length];
+    outputStream.write(encode().array());
+  }
+
+  /**
+   * Writes the frame with a single gathering write: the header goes through the caller's (pooled, direct) header
+   * buffer and the payload is sent straight from its array without being copied into an intermediate buffer.
+   */
+  public void write(GatheringByteChannel channel, ByteBuffer header) throws IOException {
+    header.clear();
+    writeHeader(header);
+    header.flip();
+
+    ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+
+    while (buffers[1].hasRemaining() || header.hasRemaining()) {
+      channel.write(buffers);
+    }
+  }
 
-    buffer.put(typeBytes);
-    buffer.put(remainingBytes);
+  /**
+   * Writes the 41 byte frame header.
+   */
+  public void writeHeader(ByteBuffer buffer) {
+    buffer.put(typeBytes(type));
+    buffer.putInt(id);
+    buffer.put(codec);
     buffer.putInt(length);
+  }
+
+  /**
+   * Encodes the whole frame into a buffer that is ready to be written to a channel.
+   */
+  public ByteBuffer encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+    writeHeader(buffer);
     buffer.put(payload);
+    buffer.flip();
 
-    outputStream.write(buffer.array());
+    return buffer;
   }
 
-  public static Message read(InputStream inputStream) throws IOException {
-    byte[] msgType = new byte[MESSAGE_TYPE];
-    byte[] msgSize = new byte[MESSAGE_SIZE];
+  /**
+   * Decodes one frame from the buffer if it holds a complete one. When it does not, nothing is consumed and
+   * {@code null} is returned so the caller can read more bytes and try again.
+   */
+  public static Message decode(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < HEADER_SIZE) {
+      return null;
+    }
 
-    inputStream.read(msgType);
-    inputStream.read(msgSize);
+    int size = frameSize(buffer, buffer.position());
 
-    // Create a buffer for the payload
-    int size = ByteBuffer.wrap(msgSize).getInt();
+    if (buffer.remaining() < HEADER_SIZE + size) {
+      return null;
+    }
+
+    String type = readType(buffer);
+    int id = buffer.getInt();
+    byte codec = buffer.get();
+    buffer.getInt();
     byte[] msgPayload = new byte[size];
+    buffer.get(msgPayload);
 
-    inputStream.read(msgPayload);
+    return new Message(type, id, codec, msgPayload);
+  }
+
+  /**
+   * Reads exactly one message from a blocking channel, looping over short reads. The header is read into the
+   * caller's buffer; the payload array is the only allocation.
+   *
+   * @throws EOFException if the peer closed the connection.
+   */
+  public static Message read(ReadableByteChannel channel, ByteBuffer header) throws IOException {
+    header.clear().limit(HEADER_SIZE);
+    readFully(channel, header);
+    header.flip();
+
+    int size = frameSize(header, 0);
+    String type = readType(header);
+    int id = header.getInt();
+    byte codec = header.get();
+    byte[] msgPayload = new byte[size];
+
+    if (size > 0) {
+      readFully(channel, ByteBuffer.wrap(msgPayload));
+    }
 
-    return new Message(new String(msgType).trim(), msgPayload);
+    return new Message(type, id, codec, msgPayload);
   }
 
-  private static byte[] toBytes(Object object) {
-    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-         ObjectOutput out = new ObjectOutputStream(bos)) {
-      out.writeObject(object);
-      return bos.toByteArray();
+  /**
+   * Size of the payload of the frame whose header starts at {@code offset}.
+   *
+   * @throws IOException if the size is negative or above {@link #MAX_FRAME_SIZE}; the stream cannot be trusted after
+   *                     that, so the connection should be closed.
+   */
+  public static int frameSize(ByteBuffer buffer, int offset) throws IOException {
+    return checkSize(buffer.getInt(offset + MESSAGE_TYPE + MESSAGE_ID + MESSAGE_CODEC));
+  }
+
+  private static int checkSize(int size) throws IOException {
+    if (size < 0 || size > MAX_FRAME_SIZE) {
+      throw new IOException("Invalid message size: " + size);
     }
-    catch(IOException e) {
-      throw new MeshMapMarshallException(e);
+
+    return size;
+  }
+
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Connection closed by peer");
+      }
     }
   }
 
-  private static Object fromBytes(byte[] bytes) {
-    try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-         ObjectInput in = new ObjectInputStream(bis)) {
-      return in.readObject();
+  /**
+   * Reads the 32 byte type field. Known types are matched against their cached encoding, so decoding the type of a
+   * regular message does not allocate.
+   */
+  private static String readType(ByteBuffer buffer) {
+    int start = buffer.position();
+    int length = 0;
+
+    while (length < MESSAGE_TYPE && buffer.get(start + length) != 0) {
+      length++;
     }
-    catch(IOException | ClassNotFoundException e) {
-      throw new MeshMapMarshallException(e);
+
+    String type = KnownTypes.find(buffer, start, length);
+
+    if (type == null) {
+      byte[] msgType = new byte[length];
+      buffer.get(msgType);
+      type = new String(msgType).trim();
     }
+
+    buffer.position(start + MESSAGE_TYPE);
+    return type;
+  }
+
+  private static byte[] typeBytes(String type) {
+    byte[] bytes = KnownTypes.bytes(type);
+
+    if (bytes == null) {
+      bytes = Arrays.copyOf(type.getBytes(), MESSAGE_TYPE);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Reads exactly one message. Connections are kept alive between messages, so the whole frame has to be consumed
+   * even when the stream hands it over in several short reads.
+   *
+   * @throws EOFException if the peer closed the connection.
+   */
+  public static Message read(InputStream inputStream) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(inputStream);
+    byte[] msgType = new byte[MESSAGE_TYPE];
+
+    dataInputStream.readFully(msgType);
+    int id = dataInputStream.readInt();
+    byte codec = dataInputStream.readByte();
+    int size = checkSize(dataInputStream.readInt());
+
+    // Create a buffer for the payload
+    byte[] msgPayload = new byte[size];
+
+    dataInputStream.readFully(msgPayload);
+
+    return new Message(new String(msgType).trim(), id, codec, msgPayload);
   }
 
   private static void checkType(String type) {
@@ -116,15 +288,34 @@ public class Message {
       throw new IllegalArgumentException("Type cannot be null");
     }
 
-    if (type.getBytes().length > MESSAGE_TYPE) {
+    if (KnownTypes.bytes(type) != null) {
+      return;
+    }
+
+    byte[] bytes = type.getBytes();
+
+    if (bytes.length > MESSAGE_TYPE) {
       throw new IllegalArgumentException("Type cannot exceed 32 bytes");
     }
+
+    KnownTypes.add(type, bytes);
   }
 
   public String getType() {
     return type;
   }
 
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * The codec the payload was written with. Responses should be written with the same one.
+   */
+  public Codec getCodec() {
+    return Codecs.get(codec);
+  }
+
   public int getLength() {
     return length;
   }
@@ -137,10 +328,16 @@ public class Message {
   public String toString() {
     return "Message{" +
             "type='" + type + '\'' +
+            ", id=" + id +
+            ", codec=" + codec +
             ", length=" + length +
             '}';
   }
 
+  /**
+   * The correlation ID is transport detail and does not take part in equality, so responses can still be compared
+   * against constants such as {@link #ACK}.
+   */
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -157,4 +354,61 @@ public class Message {
     result = 31 * result + Arrays.hashCode(payload);
     return result;
   }
+
+  /**
+   * Padded type encodings of the message types seen so far. Types are protocol constants, so the table stays small;
+   * it is capped anyway in case someone builds type strings dynamically.
+   */
+  private static final class KnownTypes {
+    private static final int MAX_TYPES = 256;
+    private static final ConcurrentMap<String, byte[]> BYTES = new ConcurrentHashMap<>();
+    private static volatile String[] types = new String[0];
+    private static volatile byte[][] encoded = new byte[0][];
+
+    static byte[] bytes(String type) {
+      return BYTES.get(type);
+    }
+
+    static synchronized void add(String type, byte[] bytes) {
+      if (BYTES.containsKey(type) || BYTES.size() >= MAX_TYPES) {
+        return;
+      }
+
+      byte[] padded = Arrays.copyOf(bytes, MESSAGE_TYPE);
+      String[] newTypes = Arrays.copyOf(types, types.length + 1);
+      byte[][] newEncoded = Arrays.copyOf(encoded, encoded.length + 1);
+      newTypes[types.length] = type;
+      newEncoded[encoded.length] = padded;
+      encoded = newEncoded;
+      types = newTypes;
+      BYTES.put(type, padded);
+    }
+
+    static String find(ByteBuffer buffer, int start, int length) {
+      String[] currentTypes = types;
+      byte[][] currentEncoded = encoded;
+      int count = Math.min(currentTypes.length, currentEncoded.length);
+
+      for (int i = 0; i < count; i++) {
+        byte[] candidate = currentEncoded[i];
+
+        if ((length == MESSAGE_TYPE || candidate[length] == 0) && (length == 0 || candidate[length - 1] != 0)
+            && matches(buffer, start, candidate, length)) {
+          return currentTypes[i];
+        }
+      }
+
+      return null;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, byte[] candidate, int length) {
+      for (int i = 0; i < length; i++) {
+        if (buffer.get(start + i) != candidate[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
 }
@@ -0,0 +1,159 @@
+package jamsesso.meshmap;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, least-recently-used cache of values read from other nodes. Entries expire after a fixed time to live,
+ * and the owning node invalidates them when the key is written. A value fetched while an invalidation arrived is
+ * not cached, so a response that raced with a write cannot put a stale value back.
+ */
+public class NearCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<Object, Cached> entries;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public NearCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Near cache must hold at least one entry");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Object, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Cached> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The cached value, or null if the key is not cached or has expired.
+     */
+    public Object get(Object key) {
+        synchronized (entries) {
+            Cached cached = entries.get(key);
+
+            if (cached != null && System.nanoTime() - cached.loadedAt > ttlNanos) {
+                entries.remove(key);
+                expirations.increment();
+                cached = null;
+            }
+
+            if (cached == null) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return cached.value;
+        }
+    }
+
+    /**
+     * Taken before fetching a value, and handed to {@link #put(Object, Object, long)} with it.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a fetched value, unless something was invalidated since {@code stamp} was taken.
+     */
+    public void put(Object key, Object value, long stamp) {
+        synchronized (entries) {
+            if (invalidations.get() == stamp) {
+                entries.put(key, new Cached(value, System.nanoTime()));
+            }
+        }
+    }
+
+    public void invalidate(Object key) {
+        invalidations.incrementAndGet();
+
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll(Collection<?> keys) {
+        invalidations.incrementAndGet();
+
+        synchronized (entries) {
+            keys.forEach(entries::remove);
+        }
+    }
+
+    public void clear() {
+        invalidations.incrementAndGet();
+
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Entries dropped to stay within the maximum size.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Entries dropped because they outlived the time to live.
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NearCache{size=%d, hits=%d, misses=%d, hitRatio=%.3f, evictions=%d, expirations=%d}",
+                size(), getHits(), getMisses(), getHitRatio(), getEvictions(), getExpirations());
+    }
+
+    private static final class Cached {
+        final Object value;
+        final long loadedAt;
+
+        Cached(Object value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -71,11 +71,11 @@ public class Node implements Serializable {
         return address;
     }
 
-/*    @Override
+    @Override
     public boolean equals(Object o) {
         if (this == o) return true;
 
-        if (o == null || o.hashCode() != this.hashCode || getClass() != o.getClass()) return false;
+        if (o == null || getClass() != o.getClass() || ((Node) o).hashCode != this.hashCode) return false;
         Node node = (Node) o;
         return Objects.equals(id, node.id) &&
                 Objects.equals(address, node.address);
@@ -84,5 +84,5 @@ public class Node implements Serializable {
     @Override
     public int hashCode() {
         return this.hashCode;
-    }*/
+    }
 }
@@ -0,0 +1,120 @@
+package jamsesso.meshmap;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells how likely it is that a node is down from how late its next heartbeat is, given the intervals between its
+ * recent heartbeats (Hayashibara et al., "The phi accrual failure detector"). Phi is -log10 of the probability that
+ * a heartbeat arrives this late or later: 1 means a 10% chance that the node is fine, 8 one in a hundred million.
+ * Rather than a fixed timeout, the threshold adapts to each node's observed jitter.
+ *
+ * The intervals are modelled as a normal distribution over the last {@value #MAX_SAMPLES} heartbeats, with a
+ * standard deviation of at least half the heartbeat interval so that a perfectly regular history does not make a
+ * single late heartbeat look fatal.
+ */
+public class PhiAccrualFailureDetector {
+    private static final int MAX_SAMPLES = 200;
+
+    private final double threshold;
+    private final double intervalMillis;
+    private final double minStdDevMillis;
+    private final ConcurrentMap<Node, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold         phi above which a node is considered down
+     * @param heartbeatInterval how often nodes are expected to send heartbeats; the first interval of a newly
+     *                          monitored node is assumed to be this
+     */
+    public PhiAccrualFailureDetector(double threshold, long heartbeatInterval, TimeUnit unit) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Phi threshold must be positive");
+        }
+
+        this.threshold = threshold;
+        this.intervalMillis = unit.toMillis(heartbeatInterval);
+        this.minStdDevMillis = intervalMillis / 2;
+    }
+
+    public void heartbeat(Node node) {
+        History history = histories.get(node);
+
+        if (history == null) {
+            history = histories.computeIfAbsent(node, ignored -> new History(intervalMillis));
+        }
+
+        history.arrived(now());
+    }
+
+    /**
+     * The suspicion level of the node. Monitoring starts with the first call for a node, as if it had just sent a
+     * heartbeat, so a node that never answers is suspected as well.
+     */
+    public double phi(Node node) {
+        return histories.computeIfAbsent(node, ignored -> new History(intervalMillis)).phi(now(), minStdDevMillis);
+    }
+
+    public boolean isAvailable(Node node) {
+        return phi(node) < threshold;
+    }
+
+    /**
+     * Forgets the node's history, so that it is judged from scratch if it is monitored again.
+     */
+    public void remove(Node node) {
+        histories.remove(node);
+    }
+
+    public void retain(Collection<Node> nodes) {
+        histories.keySet().retainAll(nodes);
+    }
+
+    private static double now() {
+        return System.nanoTime() / 1_000_000.0;
+    }
+
+    private static class History {
+        private final double[] intervals = new double[MAX_SAMPLES];
+        private int count;
+        private int next;
+        private double sum;
+        private double sumOfSquares;
+        private double lastArrival;
+
+        History(double firstInterval) {
+            lastArrival = now();
+            add(firstInterval);
+        }
+
+        synchronized void arrived(double now) {
+            add(now - lastArrival);
+            lastArrival = now;
+        }
+
+        synchronized double phi(double now, double minStdDev) {
+            double mean = sum / count;
+            double stdDev = Math.max(minStdDev, Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean)));
+            double y = (now - lastArrival - mean) / stdDev;
+            // Logistic approximation of the normal distribution's tail, accurate to about 1e-4.
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+            return now - lastArrival > mean ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+        }
+
+        private void add(double interval) {
+            if (count == MAX_SAMPLES) {
+                sum -= intervals[next];
+                sumOfSquares -= intervals[next] * intervals[next];
+            } else {
+                count++;
+            }
+
+            intervals[next] = interval;
+            next = (next + 1) % MAX_SAMPLES;
+            sum += interval;
+            sumOfSquares += interval * interval;
+        }
+    }
+}
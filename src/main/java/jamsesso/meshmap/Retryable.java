@@ -1,10 +1,14 @@
 package jamsesso.meshmap;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
 public final class Retryable<T> {
   private final Task<T> task;
   private Class<? extends Exception>[] causes;
+  private Class<? extends Exception>[] exclusions;
+  private long initialDelayMillis;
+  private long maxDelayMillis;
 
   private Retryable(Task<T> task) {
     this.task = task;
@@ -20,6 +24,27 @@ public final class Retryable<T> {
     return this;
   }
 
+  /**
+   * Failures that are not retried even though they match {@link #on(Class[])}, such as a timeout that another
+   * attempt would only repeat.
+   */
+  @SafeVarargs
+  public final Retryable<T> except(Class<? extends Exception>... exclusions) {
+    this.exclusions = exclusions;
+    return this;
+  }
+
+  /**
+   * Waits between attempts, for a random time below a bound that starts at {@code initialDelayMillis} and doubles
+   * after every attempt, up to {@code maxDelayMillis}. The randomness keeps callers that failed together from
+   * retrying together.
+   */
+  public final Retryable<T> backoff(long initialDelayMillis, long maxDelayMillis) {
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    return this;
+  }
+
   public final T times(int times) throws Exception {
     // Performs the action times-1 times.
     for (int i = 1; i < times; i++) {
@@ -27,11 +52,14 @@ public final class Retryable<T> {
         return task.apply();
       }
       catch (Exception e) {
-        boolean shouldRetry = Stream.of(causes).anyMatch(cause -> cause.isInstance(e));
+        boolean shouldRetry = Stream.of(causes).anyMatch(cause -> cause.isInstance(e)) &&
+            (exclusions == null || Stream.of(exclusions).noneMatch(exclusion -> exclusion.isInstance(e)));
 
         if (!shouldRetry) {
           throw e;
         }
+
+        pause(i, e);
       }
     }
 
@@ -39,6 +67,22 @@ public final class Retryable<T> {
     return task.apply();
   }
 
+  private void pause(int attempt, Exception failure) throws Exception {
+    if (initialDelayMillis <= 0) {
+      return;
+    }
+
+    long bound = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 30));
+
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw failure;
+    }
+  }
+
   public interface Task<T> {
     T apply() throws Exception;
   }
@@ -0,0 +1,258 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Immutable snapshot of the ring. Every node is placed on the ring at {@code virtualNodes} positions (tokens). The
+ * first is the node's ID and the others are derived from it, so every member computes the same ring from the
+ * discovery directory alone.
+ *
+ * A key belongs to the owner of the first token greater than or equal to the key's hash, wrapping around to the
+ * first token. The hash comes from the table's {@link KeyHasher}. Lookups are a binary search over a primitive array
+ * and do not allocate.
+ *
+ * Membership changes build a new table with a higher version instead of modifying this one.
+ */
+public final class RoutingTable {
+    private static final Comparator<Node> BY_ID = Comparator.comparingInt(Node::getId);
+    private static final long RING_SIZE = (long) Integer.MAX_VALUE + 1;
+
+    private final long version;
+    private final int virtualNodes;
+    private final KeyHasher hasher;
+    private final int[] tokens;
+    private final Node[] owners;
+    private final NavigableSet<Node> nodeSet;
+
+    private RoutingTable(long version, int virtualNodes, KeyHasher hasher, NavigableSet<Node> sorted) {
+        this.version = version;
+        this.virtualNodes = virtualNodes;
+        this.hasher = hasher;
+
+        List<long[]> placed = new ArrayList<>(sorted.size() * virtualNodes);
+        Node[] nodes = sorted.toArray(new Node[0]);
+
+        for (int n = 0; n < nodes.length; n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed.add(new long[]{token(nodes[n], v), n});
+            }
+        }
+
+        // Sort by token, then by node ID so that the (very unlikely) duplicate token goes to the same node everywhere.
+        placed.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        int[] tokens = new int[placed.size()];
+        Node[] owners = new Node[placed.size()];
+        int count = 0;
+
+        for (long[] token : placed) {
+            if (count > 0 && tokens[count - 1] == (int) token[0]) {
+                continue;
+            }
+
+            tokens[count] = (int) token[0];
+            owners[count] = nodes[(int) token[1]];
+            count++;
+        }
+
+        this.tokens = Arrays.copyOf(tokens, count);
+        this.owners = Arrays.copyOf(owners, count);
+        this.nodeSet = Collections.unmodifiableNavigableSet(sorted);
+    }
+
+    public static RoutingTable of(Collection<Node> nodes, long version) {
+        return of(nodes, 1, version);
+    }
+
+    public static RoutingTable of(Collection<Node> nodes, int virtualNodes, long version) {
+        return of(nodes, virtualNodes, KeyHashers.getDefault(), version);
+    }
+
+    public static RoutingTable of(Collection<Node> nodes, int virtualNodes, KeyHasher hasher, long version) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("A node needs at least one position on the ring");
+        }
+
+        NavigableSet<Node> sorted = new TreeSet<>(BY_ID);
+        sorted.addAll(nodes);
+        return new RoutingTable(version, virtualNodes, hasher, sorted);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public KeyHasher getHasher() {
+        return hasher;
+    }
+
+    public int size() {
+        return nodeSet.size();
+    }
+
+    public NavigableSet<Node> getNodes() {
+        return nodeSet;
+    }
+
+    public NavigableSet<Node> getNodesExcept(Node except) {
+        NavigableSet<Node> others = new TreeSet<>(BY_ID);
+
+        for (Node node : nodeSet) {
+            if (node.getId() != except.getId()) {
+                others.add(node);
+            }
+        }
+
+        return others;
+    }
+
+    public Node getNodeForKey(Object key) {
+        return getNodeForHash(hasher.hash(key));
+    }
+
+    public Node getNodeForHash(int hash) {
+        checkNotEmpty();
+        return owners[ceiling(hash)];
+    }
+
+    /**
+     * The key's owner followed by the next distinct nodes clockwise on the ring, {@code count} nodes in all (or
+     * every node, if there are fewer).
+     */
+    public Node[] getReplicasForKey(Object key, int count) {
+        checkNotEmpty();
+        Node[] replicas = new Node[Math.min(count, nodeSet.size())];
+        int start = ceiling(hasher.hash(key));
+        int found = 0;
+
+        for (int i = 0; found < replicas.length && i < tokens.length; i++) {
+            Node owner = owners[(start + i) % tokens.length];
+
+            if (!contains(replicas, found, owner)) {
+                replicas[found++] = owner;
+            }
+        }
+
+        return replicas;
+    }
+
+    /**
+     * The first other node found walking clockwise from the given node's ID (the given node itself if it is alone).
+     */
+    public Node getSuccessorNode(Node node) {
+        checkNotEmpty();
+        int index = Arrays.binarySearch(tokens, node.getId());
+        int start = index < 0 ? -index - 1 : index + 1;
+
+        for (int i = 0; i < tokens.length; i++) {
+            Node owner = owners[(start + i) % tokens.length];
+
+            if (!owner.equals(node)) {
+                return owner;
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * The ring as it would look without the given node: where its keys go when it leaves.
+     */
+    public RoutingTable without(Node node) {
+        return of(getNodesExcept(node), virtualNodes, hasher, version);
+    }
+
+    /**
+     * The ranges of the hash space the given node owns, grouped by the node that owned each of them before it was on
+     * the ring. Those are the ranges a joining node has to pull, and where from.
+     */
+    public Map<Node, HashRanges> getPullRanges(Node node) {
+        RoutingTable before = without(node);
+
+        if (before.size() == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<Node, List<int[]>> ranges = new HashMap<>();
+
+        for (int i = 0; i < tokens.length; i++) {
+            if (owners[i].equals(node)) {
+                int start = tokens[i == 0 ? tokens.length - 1 : i - 1];
+                ranges.computeIfAbsent(before.getNodeForHash(tokens[i]), owner -> new ArrayList<>())
+                        .add(new int[]{start, tokens[i]});
+            }
+        }
+
+        Map<Node, HashRanges> pullRanges = new HashMap<>();
+        ranges.forEach((owner, owned) -> pullRanges.put(owner, HashRanges.of(owned)));
+        return pullRanges;
+    }
+
+    /**
+     * The share of the hash space each node owns, between 0 and 1.
+     */
+    public Map<Node, Double> getOwnership() {
+        Map<Node, Double> ownership = new HashMap<>();
+
+        for (int i = 0; i < tokens.length; i++) {
+            // A token owns the range after the previous token, up to and including itself.
+            long previous = i == 0 ? tokens[tokens.length - 1] - RING_SIZE : tokens[i - 1];
+            ownership.merge(owners[i], (tokens[i] - previous) / (double) RING_SIZE, Double::sum);
+        }
+
+        return ownership;
+    }
+
+    private int ceiling(int hash) {
+        int index = Arrays.binarySearch(tokens, hash);
+
+        if (index < 0) {
+            // Not an exact match: binarySearch returns -(insertion point) - 1, the insertion point is the ceiling.
+            index = -index - 1;
+        }
+
+        return index == tokens.length ? 0 : index;
+    }
+
+    private static boolean contains(Node[] nodes, int length, Node node) {
+        for (int i = 0; i < length; i++) {
+            if (nodes[i].equals(node)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int token(Node node, int index) {
+        if (index == 0) {
+            return node.getId();
+        }
+
+        return KeyHashers.mix(node.getId() * 0x9E3779B9 + index) & Integer.MAX_VALUE;
+    }
+
+    private void checkNotEmpty() {
+        if (tokens.length == 0) {
+            throw new MeshMapRuntimeException("There are no nodes in the cluster");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingTable{version=" + version + ", virtualNodes=" + virtualNodes + ", nodes=" + nodeSet + '}';
+    }
+}
@@ -0,0 +1,182 @@
+package jamsesso.meshmap;
+
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.server.Cursor;
+import jamsesso.meshmap.server.CursorRegistry;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_SCAN_CLOSE;
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_SCAN_NEXT;
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_SCAN_OPEN;
+
+/**
+ * Iterates over the entries of the whole cluster through a scan cursor on every node: this node's is read directly,
+ * the others' are opened remotely. The first chunk of every node is requested up front, and the next chunk of a
+ * node as soon as the iterator starts on the current one, so the nodes prepare their chunks in parallel while the
+ * caller consumes. At most two chunks per node are in memory at a time, however large the map is.
+ *
+ * Cursors of an iterator that is dropped before the end are closed by {@link #close()}, or by their node after an
+ * idle timeout.
+ */
+class ScanIterator implements Iterator<Map.Entry<Object, Object>>, AutoCloseable {
+    private static final MeshMapImpl.Entry[] NONE = new MeshMapImpl.Entry[0];
+
+    private final MeshMapClient client;
+    private final Codec codec;
+    private final Deque<Source> sources = new ArrayDeque<>();
+    private final int chunkSize;
+    private Cursor local;
+    private Source current;
+    private MeshMapImpl.Entry[] chunk = NONE;
+    private int position;
+
+    /**
+     * @param local   the scan of this node's entries
+     * @param remotes the other nodes
+     * @param open    the SCAN_OPEN request sent to each of them, starting with the chunk size
+     */
+    ScanIterator(MeshMapClient client, Codec codec, Cursor local, Collection<Node> remotes, Object[] open) {
+        this.client = client;
+        this.codec = codec;
+        this.chunkSize = (Integer) open[0];
+        this.local = local;
+
+        for (Node node : remotes) {
+            sources.add(new Source(node, client.messageAsync(node, new Message(TYPE_SCAN_OPEN, open, codec))));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position == chunk.length) {
+            if (local != null) {
+                chunk = local.next(chunkSize);
+                position = 0;
+
+                if (chunk.length == 0) {
+                    local.close();
+                    local = null;
+                }
+
+                continue;
+            }
+
+            if (current == null) {
+                current = sources.poll();
+
+                if (current == null) {
+                    return false;
+                }
+            }
+
+            CursorRegistry.Chunk next = current.receive();
+
+            if (next.isLast()) {
+                current = null;
+                continue;
+            }
+
+            current.request(next);
+            chunk = next.getEntries();
+            position = 0;
+        }
+
+        return true;
+    }
+
+    @Override
+    public Map.Entry<Object, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        MeshMapImpl.Entry entry = chunk[position];
+        chunk[position++] = null;
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Closes the cursors still open on other nodes.
+     */
+    @Override
+    public void close() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+
+        for (Source source : sources) {
+            source.close();
+        }
+
+        sources.clear();
+
+        if (local != null) {
+            local.close();
+            local = null;
+        }
+
+        chunk = NONE;
+        position = 0;
+    }
+
+    private final class Source {
+        final Node node;
+        CompletableFuture<Message> pending;
+
+        Source(Node node, CompletableFuture<Message> pending) {
+            this.node = node;
+            this.pending = pending;
+        }
+
+        CursorRegistry.Chunk receive() {
+            Message response;
+
+            try {
+                response = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MeshMapRuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new MeshMapRuntimeException(e.getCause());
+            }
+
+            if (!TYPE_SCAN_OPEN.equals(response.getType())) {
+                throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+            }
+
+            return CursorRegistry.Chunk.fromPayload(response.getPayload(Object[].class));
+        }
+
+        /**
+         * Asks for the chunk after the given one, which the iterator is about to consume.
+         */
+        void request(CursorRegistry.Chunk consumed) {
+            Object[] ack = {consumed.getCursorId(), consumed.getSequence()};
+            pending = client.messageAsync(node, new Message(TYPE_SCAN_NEXT, ack, codec));
+        }
+
+        void close() {
+            // The cursor ID is in the pending response; a cursor that has sent its last chunk is already closed.
+            pending.thenAccept(response -> {
+                if (TYPE_SCAN_OPEN.equals(response.getType())) {
+                    CursorRegistry.Chunk chunk = CursorRegistry.Chunk.fromPayload(response.getPayload(Object[].class));
+
+                    if (!chunk.isLast()) {
+                        client.messageAsync(node, new Message(TYPE_SCAN_CLOSE, chunk.getCursorId(), codec));
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package jamsesso.meshmap;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * The entry counts last heard from the other nodes, so that the cluster size can be added up without asking every
+ * node each time. This node publishes its own count as soon as a check finds it changed (checks run four times per
+ * staleness bound), and at least twice per bound when it does not change. A count older than the bound is not
+ * used; the caller asks that node instead and records the answer.
+ *
+ * Counts are absolute rather than deltas, so a lost or reordered report is corrected by the next one.
+ */
+public class SizeTracker implements AutoCloseable {
+    private final long maxStalenessNanos;
+    private final IntSupplier localSize;
+    private final IntConsumer publisher;
+    private final ConcurrentMap<Node, Report> reports = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private int published = -1;
+    private long publishedAt;
+
+    /**
+     * @param localSize the number of entries this node owns
+     * @param publisher sends this node's count to the other nodes
+     */
+    public SizeTracker(long maxStaleness, TimeUnit unit, IntSupplier localSize, IntConsumer publisher) {
+        if (maxStaleness <= 0) {
+            throw new IllegalArgumentException("Staleness bound must be positive");
+        }
+
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+        this.localSize = localSize;
+        this.publisher = publisher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "meshmap-size-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(maxStalenessNanos) / 4);
+        scheduler.scheduleWithFixedDelay(this::publish, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The count last heard from the node, or null if there is none within the staleness bound.
+     */
+    public Integer get(Node node) {
+        Report report = reports.get(node);
+
+        if (report == null || System.nanoTime() - report.receivedAt > maxStalenessNanos) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return report.count;
+    }
+
+    public void record(Node node, int count) {
+        reports.put(node, new Report(count, System.nanoTime()));
+    }
+
+    /**
+     * Forgets the nodes that are no longer in the cluster.
+     */
+    public void retain(Collection<Node> nodes) {
+        reports.keySet().retainAll(nodes);
+    }
+
+    /**
+     * The number of node counts served from a report.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of node counts that had to be asked for because no report was recent enough.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void publish() {
+        try {
+            int count = localSize.getAsInt();
+            long now = System.nanoTime();
+
+            if (count != published || now - publishedAt >= maxStalenessNanos / 2) {
+                publisher.accept(count);
+                published = count;
+                publishedAt = now;
+            }
+        } catch (RuntimeException e) {
+            // A failed report is retried by the next check; a reader that misses it asks this node directly.
+        }
+    }
+
+    private static class Report {
+        final int count;
+        final long receivedAt;
+
+        Report(int count, long receivedAt) {
+            this.count = count;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package jamsesso.meshmap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Access to JDK 21 virtual threads from code that still targets Java 8. The factory method is looked up
+ * reflectively, so the same jar runs on older JDKs as long as the virtual thread mode is not switched on.
+ */
+public final class VirtualThreads {
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * An executor that starts a new virtual thread per task.
+     *
+     * @throws IllegalStateException if the JDK has no virtual threads.
+     */
+    public static ExecutorService newExecutor() {
+        if (!isAvailable()) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later, running on " +
+                    System.getProperty("java.version"));
+        }
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * A virtual thread per task, with at most {@code maxConcurrency} tasks running at once. Submitting blocks while
+     * the limit is reached, which pushes back on whoever produces the work.
+     */
+    public static BoundedExecutor newBoundedExecutor(int maxConcurrency) {
+        return new BoundedExecutor(newExecutor(), maxConcurrency);
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static final class BoundedExecutor implements Executor, AutoCloseable {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxConcurrency) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("Concurrency limit must be positive");
+            }
+
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MeshMapRuntimeException("Interrupted waiting for a free slot", e);
+            }
+
+            run(task);
+        }
+
+        /**
+         * Runs the task unless the limit is reached, without waiting for a free slot.
+         *
+         * @return whether the task was accepted.
+         */
+        public boolean tryExecute(Runnable task) {
+            if (!permits.tryAcquire()) {
+                return false;
+            }
+
+            run(task);
+            return true;
+        }
+
+        private void run(Runnable task) {
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            delegate.shutdownNow();
+        }
+    }
+}
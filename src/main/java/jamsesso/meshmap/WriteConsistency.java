@@ -0,0 +1,16 @@
+package jamsesso.meshmap;
+
+/**
+ * How many replicas must acknowledge a write before it returns.
+ */
+public enum WriteConsistency {
+    /**
+     * Only the key's owner. Backups are written in the background and a failed backup write is not reported.
+     */
+    ONE,
+
+    /**
+     * The owner and every backup.
+     */
+    ALL
+}
@@ -0,0 +1,56 @@
+package jamsesso.meshmap.client;
+
+import jamsesso.meshmap.MeshMapRuntimeException;
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * What came back from a broadcast: the response of every node that answered, and the failure of every node that
+ * did not (it could not be reached, timed out, or answered with an error).
+ */
+public class BroadcastResult {
+    private final Map<Node, Message> responses;
+    private final Map<Node, Throwable> failures;
+
+    BroadcastResult(Map<Node, Message> responses, Map<Node, Throwable> failures) {
+        this.responses = Collections.unmodifiableMap(responses);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public Map<Node, Message> getResponses() {
+        return responses;
+    }
+
+    public Map<Node, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Whether every node answered.
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Throws if any node did not answer, naming the nodes; a result that has to cover the whole cluster cannot be
+     * made from part of it.
+     */
+    public BroadcastResult requireComplete() {
+        if (!isComplete()) {
+            MeshMapRuntimeException e = new MeshMapRuntimeException("No answer from nodes: " + failures.keySet());
+            failures.values().forEach(e::addSuppressed);
+            throw e;
+        }
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastResult[answered=" + responses.keySet() + ", failed=" + failures.keySet() + "]";
+    }
+}
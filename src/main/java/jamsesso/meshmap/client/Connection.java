@@ -0,0 +1,111 @@
+package jamsesso.meshmap.client;
+
+import jamsesso.meshmap.BufferPool;
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single keep-alive socket to a peer. Connections are not thread safe; a connection is owned by exactly one
+ * caller between {@link ConnectionPool#borrow(Node)} and {@link ConnectionPool#release(Connection)}.
+ *
+ * Frames go over a blocking channel: requests with a gathering write of header and payload, responses through a
+ * pooled direct header buffer, so the only per-request allocation is the response payload itself.
+ */
+class Connection implements AutoCloseable {
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final Socket socket;
+    private final ByteBuffer header = BufferPool.HEADERS.acquire();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long lastUsed;
+
+    Connection(InetSocketAddress address, int connectTimeoutMillis) throws IOException {
+        this.address = address;
+        this.channel = SocketChannel.open();
+        this.socket = channel.socket();
+
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(address, connectTimeoutMillis);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    Message exchange(Message message) throws IOException {
+        message.write(channel, header);
+        Message response = Message.read(channel, header);
+        lastUsed = System.currentTimeMillis();
+        return response;
+    }
+
+    /**
+     * Checks the connection with a round trip. Only used for connections that sat idle long enough for the peer
+     * (or something in between) to have dropped them.
+     */
+    boolean validate() {
+        if (!isOpen()) {
+            return false;
+        }
+
+        try {
+            return Message.ACK.equals(exchange(Message.PING));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    boolean isOpen() {
+        return channel.isOpen() && channel.isConnected() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+
+    long getIdleMillis(long now) {
+        return now - lastUsed;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Closes the channel under a read blocked in another thread, which then fails and closes the connection itself.
+     * The header buffer stays with the connection until then, since that thread may still be writing into it.
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the owner will throw the connection away.
+        }
+    }
+
+    /**
+     * Only to be called by the thread that owns the connection, or while nobody does: returns the header buffer to
+     * the pool.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the connection is being thrown away.
+        }
+
+        BufferPool.HEADERS.release(header);
+    }
+}
@@ -0,0 +1,331 @@
+package jamsesso.meshmap.client;
+
+import jamsesso.meshmap.Node;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps persistent connections to every peer so that a request does not pay for a TCP handshake (and leave a
+ * TIME_WAIT socket behind) each time. Connections are pooled per node address, bounded by
+ * {@code maxConnectionsPerNode}, evicted after sitting idle for {@code idleTimeoutMillis} and validated with a
+ * PING before reuse once they have been idle for {@code validationIntervalMillis}.
+ *
+ * Besides the pooled connections, which carry one request at a time, the pool holds one shared
+ * {@link PipelinedConnection} per node for callers that want many requests in flight on a single socket.
+ *
+ * A request that gets no response within {@code readTimeoutMillis} fails with a {@link SocketTimeoutException}
+ * rather than waiting on a hung peer forever: a pooled connection is closed under the blocked reader, a pipelined
+ * request is failed on its own and its late response is dropped.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final int maxConnectionsPerNode;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long borrowTimeoutMillis;
+    private final int connectTimeoutMillis;
+    private final long readTimeoutMillis;
+    private final boolean keepAlive;
+    private final int maxInFlightPerNode;
+    private final ConcurrentMap<InetSocketAddress, NodePool> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, PipelinedConnection> pipelines = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, Object> pipelineLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbacks;
+
+    private ConnectionPool(Builder builder) {
+        this.maxConnectionsPerNode = builder.maxConnectionsPerNode;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.validationIntervalMillis = builder.validationIntervalMillis;
+        this.borrowTimeoutMillis = builder.borrowTimeoutMillis;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.keepAlive = builder.keepAlive;
+        this.maxInFlightPerNode = builder.maxInFlightPerNode;
+
+        if (keepAlive) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "meshmap-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, idleTimeoutMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "meshmap-request-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger callbackThreads = new AtomicInteger();
+        this.callbacks = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "meshmap-pipeline-callback-" + callbackThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Connection borrow(Node node) throws IOException {
+        NodePool pool = pools.computeIfAbsent(node.getAddress(), NodePool::new);
+
+        try {
+            if (!pool.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to node: " + node);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to node: " + node, e);
+        }
+
+        try {
+            Connection connection;
+            long now = System.currentTimeMillis();
+
+            while ((connection = pool.idle.pollFirst()) != null) {
+                boolean healthy = connection.isOpen() &&
+                        (connection.getIdleMillis(now) < validationIntervalMillis || connection.validate());
+
+                if (healthy) {
+                    return connection;
+                }
+
+                connection.close();
+            }
+
+            return new Connection(pool.address, connectTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    void release(Connection connection) {
+        NodePool pool = pools.get(connection.getAddress());
+
+        if (pool == null || !keepAlive || !connection.isOpen()) {
+            connection.close();
+        } else {
+            // Most recently used connections go to the front so that surplus connections age out.
+            pool.idle.offerFirst(connection);
+        }
+
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    PipelinedConnection pipeline(Node node) throws IOException {
+        InetSocketAddress address = node.getAddress();
+        PipelinedConnection pipeline = pipelines.get(address);
+
+        if (pipeline != null && pipeline.isOpen()) {
+            return pipeline;
+        }
+
+        // Connecting blocks for up to the connect timeout, so only callers for the same node wait on it.
+        synchronized (pipelineLocks.computeIfAbsent(address, key -> new Object())) {
+            pipeline = pipelines.get(address);
+
+            if (pipeline == null || !pipeline.isOpen()) {
+                pipeline = new PipelinedConnection(address, connectTimeoutMillis, maxInFlightPerNode, this);
+                pipelines.put(address, pipeline);
+            }
+
+            return pipeline;
+        }
+    }
+
+    /**
+     * Runs the task after the delay on the pool's timer thread; the task must be short.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code onTimeout} if the request is still waiting for its response after the read timeout, or returns
+     * null if there is no read timeout.
+     */
+    ScheduledFuture<?> readDeadline(Runnable onTimeout) {
+        return readTimeoutMillis > 0 ? schedule(onTimeout, readTimeoutMillis) : null;
+    }
+
+    /**
+     * Completes a pipelined request off the thread that noticed it was done, so that whatever the caller chained to
+     * its future runs there too and may send again without blocking a connection's reader or the timer.
+     */
+    void complete(Runnable completion) {
+        try {
+            callbacks.execute(completion);
+        } catch (RejectedExecutionException e) {
+            // The pool is closed; nobody is left to block, and the future must not be left hanging.
+            completion.run();
+        }
+    }
+
+    SocketTimeoutException readTimeout(InetSocketAddress address) {
+        return new SocketTimeoutException("No response from " + address + " within " + readTimeoutMillis + " ms");
+    }
+
+    void invalidate(Connection connection) {
+        connection.close();
+        NodePool pool = pools.get(connection.getAddress());
+
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Drops all pooled connections to a node, e.g. because it left the cluster.
+     */
+    public void evict(Node node) {
+        NodePool pool = pools.remove(node.getAddress());
+
+        if (pool != null) {
+            pool.idle.forEach(Connection::close);
+            pool.idle.clear();
+        }
+
+        PipelinedConnection pipeline = pipelines.remove(node.getAddress());
+
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+
+        for (NodePool pool : pools.values()) {
+            Iterator<Connection> connections = pool.idle.descendingIterator();
+
+            while (connections.hasNext()) {
+                Connection connection = connections.next();
+
+                if (connection.getIdleMillis(now) >= idleTimeoutMillis || !connection.isOpen()) {
+                    if (pool.idle.removeLastOccurrence(connection)) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+
+        timer.shutdownNow();
+
+        for (NodePool pool : pools.values()) {
+            pool.idle.forEach(Connection::close);
+            pool.idle.clear();
+        }
+
+        pools.clear();
+        pipelines.values().forEach(PipelinedConnection::close);
+        pipelines.clear();
+        callbacks.shutdown();
+    }
+
+    private class NodePool {
+        final InetSocketAddress address;
+        final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+        final Semaphore permits = new Semaphore(maxConnectionsPerNode);
+
+        NodePool(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    public static class Builder {
+        private int maxConnectionsPerNode = 8;
+        private long idleTimeoutMillis = 60_000;
+        private long validationIntervalMillis = 5_000;
+        private long borrowTimeoutMillis = 10_000;
+        private int connectTimeoutMillis = 5_000;
+        private long readTimeoutMillis = 10_000;
+        private boolean keepAlive = true;
+        private int maxInFlightPerNode = 1024;
+
+        public Builder setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+            if (maxConnectionsPerNode < 1) {
+                throw new IllegalArgumentException("At least one connection per node is required");
+            }
+
+            this.maxConnectionsPerNode = maxConnectionsPerNode;
+            return this;
+        }
+
+        public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public Builder setValidationIntervalMillis(long validationIntervalMillis) {
+            this.validationIntervalMillis = validationIntervalMillis;
+            return this;
+        }
+
+        public Builder setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * How long a request waits for its response; 0 waits forever.
+         */
+        public Builder setReadTimeoutMillis(long readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * With keep-alive disabled every message gets its own socket, which is how the client used to work.
+         */
+        public Builder setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder setMaxInFlightPerNode(int maxInFlightPerNode) {
+            if (maxInFlightPerNode < 1) {
+                throw new IllegalArgumentException("At least one request in flight per node is required");
+            }
+
+            this.maxInFlightPerNode = maxInFlightPerNode;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            return new ConnectionPool(this);
+        }
+    }
+}
@@ -1,61 +1,272 @@
 package jamsesso.meshmap.client;
 
 import jamsesso.meshmap.MeshMapCluster;
+import jamsesso.meshmap.MeshMapRuntimeException;
 import jamsesso.meshmap.Message;
 import jamsesso.meshmap.Node;
 import jamsesso.meshmap.Retryable;
+import jamsesso.meshmap.VirtualThreads;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.util.List;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-import static java.lang.System.err;
+public class MeshMapClient implements AutoCloseable {
+    private static final int ATTEMPTS = 3;
+    private static final long RETRY_INITIAL_DELAY_MILLIS = 20;
+    private static final long RETRY_MAX_DELAY_MILLIS = 1_000;
+    private static final int DEFAULT_BROADCAST_THREADS = 32;
 
-public class MeshMapClient {
+    private final ConnectionPool pool;
+    private final Executor broadcastExecutor;
+    // Whether the broadcast executor is the default one, which is shut down with the client.
+    private final boolean ownsBroadcastExecutor;
+    private final LongAdder hedges = new LongAdder();
+    private volatile long hedgeDelayMillis;
 
+    public MeshMapClient() {
+        this(new ConnectionPool.Builder().build());
+    }
+
+    /**
+     * Runs broadcast legs on a pool of up to {@value #DEFAULT_BROADCAST_THREADS} daemon threads of the client's own,
+     * which are let go when idle and stopped on {@link #close()}. The legs block on socket I/O and retry pauses, which
+     * must not tie up a shared pool such as the one behind parallel streams.
+     */
+    public MeshMapClient(ConnectionPool pool) {
+        this(pool, newBroadcastExecutor(), true);
+    }
+
+    /**
+     * @param broadcastExecutor runs the legs of a broadcast, one task per node. The legs block on socket I/O, so a
+     *                          small shared pool can be starved; on JDK 21+ pass
+     *                          {@link VirtualThreads#newBoundedExecutor(int)} to run each leg on a virtual thread.
+     *                          It is not shut down with the client.
+     */
+    public MeshMapClient(ConnectionPool pool, Executor broadcastExecutor) {
+        this(pool, broadcastExecutor, false);
+    }
+
+    private MeshMapClient(ConnectionPool pool, Executor broadcastExecutor, boolean ownsBroadcastExecutor) {
+        this.pool = pool;
+        this.broadcastExecutor = broadcastExecutor;
+        this.ownsBroadcastExecutor = ownsBroadcastExecutor;
+    }
 
-    public static Message message(Node node, Message message) throws IOException {
+    /**
+     * Sends a second copy of an idempotent request (see {@link #messageHedged(Node, Message)}) when the first has not
+     * been answered after {@code hedgeDelayMillis}, and takes whichever response comes first. A delay around the
+     * 95th percentile response time cuts the tail left by a slow connection or a pause on the peer for a few percent
+     * more requests. 0, the default, never hedges.
+     */
+    public MeshMapClient withHedging(long hedgeDelayMillis) {
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        return this;
+    }
+
+    /**
+     * The number of second copies sent by hedging.
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * Connection failures are retried up to {@value #ATTEMPTS} times in all, after a random pause that doubles every
+     * attempt. A read timeout is not retried: the peer got the request and another attempt would wait just as long.
+     */
+    public Message message(Node node, Message message) throws IOException {
         try {
-            return Retryable.retry(() -> {
-                try (Socket socket = new Socket()) {
-                    socket.connect(node.getAddress());
-
-                    try (OutputStream outputStream = socket.getOutputStream();
-                         InputStream inputStream = socket.getInputStream()) {
-                        message.write(outputStream);
-                        outputStream.flush();
-                        return Message.read(inputStream);
-                    }
-                }
-            }).on(IOException.class).times(3);
+            return Retryable.retry(() -> exchange(node, message))
+                    .on(IOException.class)
+                    .except(SocketTimeoutException.class)
+                    .backoff(RETRY_INITIAL_DELAY_MILLIS, RETRY_MAX_DELAY_MILLIS)
+                    .times(ATTEMPTS);
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             throw new IOException(e);
         }
     }
 
-    public static Map<Node, Message> broadcast(NavigableSet<Node> nodesExcepCurrent, Message message) {
-        return nodesExcepCurrent.parallelStream()
-                .map(node -> {
-                    try {
-                        return new BroadcastResponse(node, message(node, message));
-                    } catch (IOException e) {
-                        // TODO Better error handling strategy needed.
-                        err.println("Unable to broadcast message to node: " + node);
-                        e.printStackTrace();
+    /**
+     * Like {@link #message(Node, Message)}, hedged when hedging is on. Only for requests that are safe to apply
+     * twice, such as reads.
+     */
+    public Message messageHedged(Node node, Message message) throws IOException {
+        if (hedgeDelayMillis <= 0) {
+            return message(node, message);
+        }
+
+        try {
+            return send(node, message, true).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a message on the node's pipelined connection without waiting for the response. Many requests can be
+     * outstanding on the same connection; each future completes when its own response arrives.
+     */
+    public CompletableFuture<Message> messageAsync(Node node, Message message) {
+        try {
+            return pool.pipeline(node).send(message);
+        } catch (IOException e) {
+            CompletableFuture<Message> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Sends the message to every node at once and waits for all of them, each for at most the read timeout. Nodes
+     * that cannot be reached, time out or answer with an error are reported in the result rather than left out.
+     *
+     * @param idempotent whether the message is safe to apply twice, so that it may be hedged
+     */
+    public BroadcastResult broadcast(Collection<Node> nodes, Message message, boolean idempotent) {
+        Map<Node, CompletableFuture<Message>> legs = new LinkedHashMap<>();
+
+        for (Node node : nodes) {
+            legs.put(node, send(node, message, idempotent));
+        }
+
+        Map<Node, Message> responses = new HashMap<>();
+        Map<Node, Throwable> failures = new HashMap<>();
+
+        legs.forEach((node, leg) -> {
+            try {
+                Message response = leg.join();
+
+                if (Message.TYPE_ERR.equals(response.getType())) {
+                    failures.put(node, new MeshMapRuntimeException("Node " + node + " failed to handle " + message.getType()));
+                } else {
+                    responses.put(node, response);
+                }
+            } catch (CompletionException e) {
+                failures.put(node, e.getCause());
+            }
+        });
+
+        return new BroadcastResult(responses, failures);
+    }
+
+    public BroadcastResult broadcast(MeshMapCluster cluster, Node self, Message message) {
+        return broadcast(cluster.getAllNodesExcept(self), message, false);
+    }
+
+    public BroadcastResult broadcast(MeshMapCluster cluster, Node self, Message message, boolean idempotent) {
+        return broadcast(cluster.getAllNodesExcept(self), message, idempotent);
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+
+        if (ownsBroadcastExecutor) {
+            ((ExecutorService) broadcastExecutor).shutdownNow();
+        }
+    }
+
+    private static ExecutorService newBroadcastExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_BROADCAST_THREADS, DEFAULT_BROADCAST_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "meshmap-broadcast-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Sends the message on the broadcast executor and, if it may be hedged, sends it again once the hedge delay has
+     * passed without a response. The first response wins; the request fails only if every copy sent fails.
+     */
+    private CompletableFuture<Message> send(Node node, Message message, boolean hedged) {
+        long delay = hedgeDelayMillis;
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        attempt(node, message, result, outstanding);
+
+        if (hedged && delay > 0) {
+            ScheduledFuture<?> hedge = pool.schedule(() -> {
+                if (!result.isDone() && outstanding.incrementAndGet() > 1) {
+                    hedges.increment();
+                    attempt(node, message, result, outstanding);
+                }
+            }, delay);
 
-                        return new BroadcastResponse(node, Message.ERR);
-                    }
-                })
-                .collect(Collectors.toMap(BroadcastResponse::getNode, BroadcastResponse::getResponse));
+            result.whenComplete((response, error) -> hedge.cancel(false));
+        }
+
+        return result;
     }
 
-    public static Map<Node, Message> broadcast(MeshMapCluster cluster, Node self, Message message) {
-        return MeshMapClient.broadcast(cluster.getAllNodesExcept(self),message);
+    private void attempt(Node node, Message message, CompletableFuture<Message> result, AtomicInteger outstanding) {
+        CompletableFuture.runAsync(() -> {
+            try {
+                result.complete(message(node, message));
+            } catch (IOException | RuntimeException e) {
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, broadcastExecutor);
     }
 
+    private Message exchange(Node node, Message message) throws IOException {
+        Connection connection = pool.borrow(node);
+        // Closing the channel under a blocked read is the only way to interrupt it.
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> deadline = pool.readDeadline(() -> {
+            timedOut.set(true);
+            connection.abort();
+        });
+        Message response;
+
+        try {
+            response = connection.exchange(message);
+        } catch (IOException | RuntimeException e) {
+            // A stale keep-alive connection fails here; the retry gets a fresh one.
+            pool.invalidate(connection);
+
+            if (timedOut.get()) {
+                throw pool.readTimeout(connection.getAddress());
+            }
+
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+
+        pool.release(connection);
+        return response;
+    }
 }
@@ -0,0 +1,179 @@
+package jamsesso.meshmap.client;
+
+import jamsesso.meshmap.BufferPool;
+import jamsesso.meshmap.FrameBuffer;
+import jamsesso.meshmap.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection shared by many callers. Requests are written as soon as they are sent and tagged with a correlation
+ * ID; a reader thread matches each response to its request when it arrives, in whatever order that happens, and the
+ * request's future is completed on the pool's callback threads, never on the reader itself.
+ * At most {@code maxInFlight} requests are outstanding at a time; senders block once that many are in flight.
+ * A request still unanswered after the pool's read timeout fails without closing the connection.
+ */
+class PipelinedConnection implements AutoCloseable {
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final ByteBuffer header = BufferPool.HEADERS.acquire();
+    private final ConcurrentMap<Integer, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Semaphore inFlight;
+    private final ConnectionPool pool;
+    private volatile boolean closed;
+    // Guarded by header.
+    private boolean headerReleased;
+
+    PipelinedConnection(InetSocketAddress address, int connectTimeoutMillis, int maxInFlight, ConnectionPool pool)
+            throws IOException {
+        this.address = address;
+        this.pool = pool;
+        this.channel = SocketChannel.open();
+        this.inFlight = new Semaphore(maxInFlight);
+
+        try {
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(address, connectTimeoutMillis);
+        } catch (IOException e) {
+            channel.close();
+            BufferPool.HEADERS.release(header);
+            throw e;
+        }
+
+        Thread reader = new Thread(this::readResponses, "meshmap-pipeline-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    CompletableFuture<Message> send(Message message) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        int id = nextId();
+        pending.put(id, future);
+        ScheduledFuture<?> deadline = pool.readDeadline(() -> fail(id, pool.readTimeout(address)));
+
+        if (deadline != null) {
+            future.whenComplete((response, error) -> deadline.cancel(false));
+        }
+
+        if (closed) {
+            // The reader may already have failed everything that was pending; make sure this one is not left behind.
+            fail(id, new IOException("Connection to " + address + " is closed"));
+            return future;
+        }
+
+        try {
+            synchronized (header) {
+                // Once closed, the header may already be back in the pool and in use by another connection.
+                if (closed) {
+                    throw new IOException("Connection to " + address + " is closed");
+                }
+
+                message.withId(id).write(channel, header);
+            }
+        } catch (IOException e) {
+            close();
+            fail(id, e);
+        }
+
+        return future;
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the connection is being thrown away.
+        }
+
+        synchronized (header) {
+            if (!headerReleased) {
+                headerReleased = true;
+                BufferPool.HEADERS.release(header);
+            }
+        }
+    }
+
+    private int nextId() {
+        // Zero is what a message carries when it was never tagged, so it is never handed out.
+        int id;
+
+        do {
+            id = nextId.incrementAndGet();
+        } while (id == 0 || pending.containsKey(id));
+
+        return id;
+    }
+
+    private void readResponses() {
+        IOException cause = null;
+
+        // Responses are read in bulk into a pooled buffer and cut into frames, rather than one read per field.
+        try (FrameBuffer frames = new FrameBuffer()) {
+            while (!closed) {
+                if (frames.readFrom(channel) < 0) {
+                    break;
+                }
+
+                frames.drain(this::complete);
+            }
+        } catch (IOException e) {
+            cause = e;
+        } finally {
+            close();
+            IOException error = cause != null ? cause : new IOException("Connection to " + address + " is closed");
+            pending.keySet().forEach(id -> fail(id, error));
+        }
+    }
+
+    private void complete(Message response) {
+        CompletableFuture<Message> future = pending.remove(response.getId());
+
+        if (future != null) {
+            // The permit is freed here, so a callback that sends again can never wait on this thread.
+            inFlight.release();
+            pool.complete(() -> future.complete(response));
+        }
+    }
+
+    private void fail(int id, Throwable cause) {
+        CompletableFuture<Message> future = pending.remove(id);
+
+        if (future != null) {
+            inFlight.release();
+            pool.complete(() -> future.completeExceptionally(cause));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.MeshMapMarshallException;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact tagged binary format. Every value starts with a one byte tag; strings, primitive boxes, byte arrays,
+ * {@link Bytes}, entries and arrays of those are written directly without class descriptors. Other types can be plugged in with
+ * {@link #register(int, Class, TypeSerializer)}. Anything else that is {@link Serializable} falls back to Java
+ * serialization for that one value.
+ */
+public class BinaryCodec implements Codec {
+    public static final byte ID = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_SHORT = 4;
+    private static final int TAG_BYTE = 5;
+    private static final int TAG_CHAR = 6;
+    private static final int TAG_BOOLEAN = 7;
+    private static final int TAG_FLOAT = 8;
+    private static final int TAG_DOUBLE = 9;
+    private static final int TAG_BYTES = 10;
+    private static final int TAG_ENTRY = 11;
+    private static final int TAG_OBJECT_ARRAY = 12;
+    private static final int TAG_ENTRY_ARRAY = 13;
+    private static final int TAG_USER = 14;
+    private static final int TAG_JAVA = 15;
+    private static final int TAG_ENCODED = 16;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<Class<?>, UserType<?>> userTypesByClass = new ConcurrentHashMap<>();
+    private final Map<Integer, UserType<?>> userTypesById = new ConcurrentHashMap<>();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    /**
+     * Registers a serializer for a user type. The same type ID and serializer must be registered on every node.
+     */
+    public <T> void register(int typeId, Class<T> type, TypeSerializer<T> serializer) {
+        UserType<T> userType = new UserType<>(typeId, type, serializer);
+
+        if (userTypesById.putIfAbsent(typeId, userType) != null) {
+            throw new IllegalArgumentException("Type ID " + typeId + " is already registered");
+        }
+
+        userTypesByClass.put(type, userType);
+    }
+
+    @Override
+    public byte[] encode(Object object) {
+        BinaryWriter writer = new BinaryWriter(this, INITIAL_CAPACITY);
+        write(writer, object);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(this, bytes, 0, bytes.length);
+        Object value = read(reader);
+
+        if (reader.hasRemaining()) {
+            throw new MeshMapMarshallException("Trailing bytes after payload");
+        }
+
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    void write(BinaryWriter out, Object value) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof MeshMapImpl.Entry) {
+            MeshMapImpl.Entry entry = (MeshMapImpl.Entry) value;
+            out.writeByte(TAG_ENTRY);
+            write(out, entry.getKey());
+            write(out, entry.getValue());
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTES);
+            out.writeBytes((byte[]) value);
+        } else if (value instanceof Bytes) {
+            out.writeByte(TAG_ENCODED);
+            out.writeBytes(((Bytes) value).array());
+        } else if (value instanceof MeshMapImpl.Entry[]) {
+            MeshMapImpl.Entry[] entries = (MeshMapImpl.Entry[]) value;
+            out.writeByte(TAG_ENTRY_ARRAY);
+            out.writeVarInt(entries.length);
+
+            for (MeshMapImpl.Entry entry : entries) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else if (value.getClass() == Object[].class) {
+            Object[] values = (Object[]) value;
+            out.writeByte(TAG_OBJECT_ARRAY);
+            out.writeVarInt(values.length);
+
+            for (Object element : values) {
+                write(out, element);
+            }
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHAR);
+            out.writeShort((Character) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            UserType<Object> userType = (UserType<Object>) userTypesByClass.get(value.getClass());
+
+            if (userType != null) {
+                out.writeByte(TAG_USER);
+                out.writeVarInt(userType.id);
+                userType.serializer.write(value, out);
+            } else if (value instanceof Serializable) {
+                out.writeByte(TAG_JAVA);
+                out.writeBytes(Codecs.JAVA.encode(value));
+            } else {
+                throw new MeshMapMarshallException("Cannot encode " + value.getClass().getName() +
+                        ": register a TypeSerializer for it or make it Serializable");
+            }
+        }
+    }
+
+    Object read(BinaryReader in) {
+        int tag = in.readByte();
+
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return in.readString();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_SHORT:
+                return in.readShort();
+            case TAG_BYTE:
+                return (byte) in.readByte();
+            case TAG_CHAR:
+                return (char) in.readShort();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BYTES:
+                return in.readBytes();
+            case TAG_ENCODED:
+                return Bytes.wrap(in.readBytes());
+            case TAG_ENTRY:
+                return new MeshMapImpl.Entry(read(in), read(in));
+            case TAG_OBJECT_ARRAY: {
+                Object[] values = new Object[in.readVarInt()];
+
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = read(in);
+                }
+
+                return values;
+            }
+            case TAG_ENTRY_ARRAY: {
+                MeshMapImpl.Entry[] entries = new MeshMapImpl.Entry[in.readVarInt()];
+
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = new MeshMapImpl.Entry(read(in), read(in));
+                }
+
+                return entries;
+            }
+            case TAG_USER: {
+                int typeId = in.readVarInt();
+                UserType<?> userType = userTypesById.get(typeId);
+
+                if (userType == null) {
+                    throw new MeshMapMarshallException("No serializer registered for type ID " + typeId);
+                }
+
+                return userType.serializer.read(in);
+            }
+            case TAG_JAVA:
+                return Codecs.JAVA.decode(in.readBytes());
+            default:
+                throw new MeshMapMarshallException("Unknown tag " + tag);
+        }
+    }
+
+    private static class UserType<T> {
+        final int id;
+        final Class<T> type;
+        final TypeSerializer<T> serializer;
+
+        UserType(int id, Class<T> type, TypeSerializer<T> serializer) {
+            this.id = id;
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.MeshMapMarshallException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads what a {@link BinaryWriter} wrote.
+ */
+public class BinaryReader {
+    private final BinaryCodec codec;
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    BinaryReader(BinaryCodec codec, byte[] buffer, int offset, int length) {
+        this.codec = codec;
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() {
+        require(1);
+        return buffer[position++];
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public short readShort() {
+        require(2);
+        return (short) (((buffer[position++] & 0xFF) << 8) | (buffer[position++] & 0xFF));
+    }
+
+    public int readInt() {
+        require(4);
+        return ((buffer[position++] & 0xFF) << 24) |
+                ((buffer[position++] & 0xFF) << 16) |
+                ((buffer[position++] & 0xFF) << 8) |
+                (buffer[position++] & 0xFF);
+    }
+
+    public long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public int readVarInt() {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new MeshMapMarshallException("Malformed variable length integer");
+    }
+
+    public byte[] readBytes() {
+        int length = readVarInt();
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public Object readObject() {
+        return codec.read(this);
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    private void require(int length) {
+        if (length < 0 || position + length > limit) {
+            throw new MeshMapMarshallException("Payload is truncated");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.KeyHashers;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An immutable run of bytes that is equal to any other with the same content, such as a key or value that has already
+ * been encoded. Codecs write it as it is and read it back without looking inside, so a node can hash, compare and
+ * store keys and values in this form without the classes they were encoded from.
+ */
+public final class Bytes implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] bytes;
+    private int hash;
+
+    private Bytes(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Wraps the array without copying it. The caller must not change it afterwards.
+     */
+    public static Bytes wrap(byte[] bytes) {
+        return new Bytes(bytes);
+    }
+
+    public static Bytes copyOf(byte[] bytes) {
+        return new Bytes(bytes.clone());
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Decodes the content with the codec, without copying it first.
+     */
+    public Object decode(Codec codec) {
+        return codec.decode(bytes);
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Bytes && Arrays.equals(bytes, ((Bytes) o).bytes);
+    }
+
+    /**
+     * MurmurHash3 of the content, so the hash is the same on every node and spreads well over the ring.
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+
+        if (h == 0) {
+            h = KeyHashers.murmur3(bytes, 0);
+            hash = h;
+        }
+
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "Bytes[" + bytes.length + "]";
+    }
+}
@@ -0,0 +1,14 @@
+package jamsesso.meshmap.codec;
+
+/**
+ * Turns message payloads (keys, values, entries and arrays of them) into bytes and back. Every frame carries the ID
+ * of the codec its payload was written with, and the receiving side looks the codec up in {@link Codecs}, so a codec
+ * has to be registered under the same ID on every node of the cluster.
+ */
+public interface Codec {
+    byte getId();
+
+    byte[] encode(Object object);
+
+    Object decode(byte[] bytes);
+}
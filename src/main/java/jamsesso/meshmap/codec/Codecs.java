@@ -0,0 +1,48 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.MeshMapMarshallException;
+
+/**
+ * Registry of the codecs a node understands, indexed by the codec ID carried in each frame.
+ */
+public final class Codecs {
+    public static final JavaCodec JAVA = new JavaCodec();
+    public static final BinaryCodec BINARY = new BinaryCodec();
+
+    private static final Codec[] CODECS = new Codec[256];
+
+    static {
+        register(JAVA);
+        register(BINARY);
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Codec used for messages that do not ask for a specific one.
+     */
+    public static Codec getDefault() {
+        return BINARY;
+    }
+
+    public static synchronized void register(Codec codec) {
+        Codec existing = CODECS[codec.getId() & 0xFF];
+
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("Codec ID " + codec.getId() + " is already taken by " + existing);
+        }
+
+        CODECS[codec.getId() & 0xFF] = codec;
+    }
+
+    public static Codec get(byte id) {
+        Codec codec = CODECS[id & 0xFF];
+
+        if (codec == null) {
+            throw new MeshMapMarshallException("No codec registered with ID " + id);
+        }
+
+        return codec;
+    }
+}
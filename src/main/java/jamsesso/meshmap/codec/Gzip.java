@@ -0,0 +1,45 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.MeshMapMarshallException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP for large payloads that are worth the CPU, such as the batches a leaving node hands off.
+ */
+public final class Gzip {
+    private Gzip() {
+    }
+
+    public static byte[] compress(byte[] bytes) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, bytes.length / 4))) {
+            try (GZIPOutputStream out = new GZIPOutputStream(bos, 8192)) {
+                out.write(bytes);
+            }
+
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new MeshMapMarshallException(e);
+        }
+    }
+
+    public static byte[] decompress(byte[] bytes) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes), 8192);
+             ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length * 4)) {
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                bos.write(buffer, 0, read);
+            }
+
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new MeshMapMarshallException(e);
+        }
+    }
+}
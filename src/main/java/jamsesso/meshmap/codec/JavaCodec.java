@@ -0,0 +1,46 @@
+package jamsesso.meshmap.codec;
+
+import jamsesso.meshmap.MeshMapMarshallException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+/**
+ * Plain Java serialization. Works for anything {@link java.io.Serializable}, at the cost of class descriptors in
+ * every payload and reflective (de)serialization.
+ */
+public class JavaCodec implements Codec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object object) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.writeObject(object);
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new MeshMapMarshallException(e);
+        }
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+             ObjectInput in = new ObjectInputStream(bis)) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new MeshMapMarshallException(e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package jamsesso.meshmap.codec;
+
+/**
+ * Writes and reads one user type for the {@link BinaryCodec}. See {@link BinaryCodec#register}.
+ */
+public interface TypeSerializer<T> {
+    void write(T value, BinaryWriter out);
+
+    T read(BinaryReader in);
+}
@@ -0,0 +1,56 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.Aggregators;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.System.out;
+
+/**
+ * Count, sum, min, max and a grouped count over a loaded in-process cluster, computed on the nodes with
+ * {@code aggregate}, and the same sum computed here from an {@code entrySet()} iteration for comparison.
+ *
+ * Arguments: [entries] [first port]
+ */
+public class AggregationBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 46800;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      MeshMapImpl<String, Integer> map = cluster.map(0);
+      Map<String, Integer> batch = new HashMap<>();
+
+      for (int i = 0; i < count; i++) {
+        batch.put("key-" + i, i);
+
+        if (batch.size() == 100_000) {
+          map.putAll(batch);
+          batch.clear();
+        }
+      }
+
+      map.putAll(batch);
+
+      Timer.time("count", 1, i -> out.println("count: " + map.aggregate(Aggregators.count())));
+      Timer.time("sum", 1, i -> out.println("sum: " + map.aggregate(Aggregators.sumLong((key, value) -> value))));
+      Timer.time("min", 1, i -> out.println("min: " + map.aggregate(Aggregators.min((String key, Integer value) -> value))));
+      Timer.time("max", 1, i -> out.println("max: " + map.aggregate(Aggregators.max((String key, Integer value) -> value))));
+      Timer.time("count by last digit", 1, i -> out.println("groups: " +
+          new TreeMap<>(map.aggregate(Aggregators.groupBy((key, value) -> value % 10, Aggregators.count())))));
+
+      Timer.time("sum over entrySet()", 1, i -> {
+        long sum = 0;
+
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+          sum += entry.getValue();
+        }
+
+        out.println("sum: " + sum);
+      });
+    }
+  }
+}
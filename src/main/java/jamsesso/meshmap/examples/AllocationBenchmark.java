@@ -0,0 +1,91 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.BufferPool;
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.server.MeshMapServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_GET;
+import static java.lang.System.out;
+
+/**
+ * Bytes allocated per request on the framing path, measured with the JVM's per-thread allocation counter (the same
+ * counter JMH's gc profiler reads). Compares stream framing with a heap frame buffer, channel framing with pooled
+ * direct header buffers, and a full client round trip on a pooled connection.
+ */
+public class AllocationBenchmark {
+  private static final int WARMUP = 50_000;
+  private static final int COUNT = 200_000;
+
+  public static void main(String[] args) throws Exception {
+    Message message = new Message(TYPE_GET, "some-key-0123456789");
+
+    report("stream framing (heap frame)", iterations -> {
+      for (int i = 0; i < iterations; i++) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        message.write(bytes);
+        Message.read(new ByteArrayInputStream(bytes.toByteArray()));
+      }
+    });
+
+    Pipe pipe = Pipe.open();
+    ByteBuffer writeHeader = BufferPool.HEADERS.acquire();
+    ByteBuffer readHeader = BufferPool.HEADERS.acquire();
+
+    report("channel framing (pooled direct header)", iterations -> {
+      for (int i = 0; i < iterations; i++) {
+        message.write(pipe.sink(), writeHeader);
+        Message.read(pipe.source(), readHeader);
+      }
+    });
+
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 45400;
+    Node node = new Node(new InetSocketAddress("127.0.0.1", port));
+    ExecutorService acceptor = Executors.newSingleThreadExecutor();
+
+    try (MeshMapServer server = new MeshMapServer(node, request -> Message.ACK, acceptor);
+         MeshMapClient client = new MeshMapClient()) {
+      server.start();
+      Thread.sleep(200);
+
+      report("client round trip (pooled connection)", iterations -> {
+        for (int i = 0; i < iterations; i++) {
+          client.message(node, message);
+        }
+      });
+    } finally {
+      acceptor.shutdownNow();
+    }
+  }
+
+  private static void report(String name, Work work) throws IOException {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    work.run(WARMUP);
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    work.run(COUNT);
+    long elapsed = System.nanoTime() - start;
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    out.printf("%-40s %8.1f bytes/op %8.0f ns/op%n", name, allocated / (double) COUNT, elapsed / (double) COUNT);
+  }
+
+  @FunctionalInterface
+  private interface Work {
+    void run(int iterations) throws IOException;
+  }
+}
@@ -0,0 +1,45 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.AsyncMeshMap;
+import jamsesso.meshmap.MeshMap;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.lang.System.out;
+
+/**
+ * Issues many single-key operations through the async view from one thread and waits for all of them at the end.
+ *
+ * Arguments: [operations] [nodes] [first port]
+ */
+public class AsyncBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 45600;
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMap<String, Integer> map = cluster.map(0);
+      AsyncMeshMap<String, Integer> async = map.async();
+      CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+
+      Timer.time("putAsync x " + count, 1, ignored -> {
+        for (int i = 0; i < count; i++) {
+          futures[i] = async.putAsync("key-" + i, i);
+        }
+
+        CompletableFuture.allOf(futures).join();
+      });
+
+      Timer.time("getAsync x " + count, 1, ignored -> {
+        for (int i = 0; i < count; i++) {
+          futures[i] = async.getAsync("key-" + i);
+        }
+
+        CompletableFuture.allOf(futures).join();
+      });
+
+      out.println("sizeAsync: " + async.sizeAsync().join());
+    }
+  }
+}
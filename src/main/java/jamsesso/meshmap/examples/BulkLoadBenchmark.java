@@ -0,0 +1,42 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * Bulk load, bulk read and bulk delete through the batched putAll/getAll/removeAll on an in-process cluster.
+ *
+ * Arguments: [entries] [nodes] [first port]
+ */
+public class BulkLoadBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 45500;
+
+    Map<String, Integer> data = new HashMap<>(count * 2);
+    List<String> keys = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      String key = "key-" + i;
+      data.put(key, i);
+      keys.add(key);
+    }
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMap<String, Integer> map = cluster.map(0);
+
+      Timer.time("putAll(" + count + ")", 1, i -> map.putAll(data));
+      Timer.time("getAll(" + count + ")", 1, i -> out.println("found " + map.getAll(keys).size() + " entries"));
+      out.println("size: " + map.size());
+      Timer.time("removeAll(" + count + ")", 1, i -> map.removeAll(keys));
+      out.println("size: " + map.size());
+    }
+  }
+}
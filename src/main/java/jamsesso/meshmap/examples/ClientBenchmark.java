@@ -0,0 +1,104 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.client.ConnectionPool;
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.server.MeshMapServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_GET;
+import static jamsesso.meshmap.server.MessageHandlerImpl.TYPE_PUT;
+import static java.lang.System.out;
+
+/**
+ * Single-key get/put throughput against one in-process server, first with a socket per message (the old client
+ * behaviour), then with pooled keep-alive connections and finally pipelined on a single connection.
+ */
+public class ClientBenchmark {
+  private static final int COUNT = 20_000;
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 45200;
+    Node server = new Node(new InetSocketAddress("127.0.0.1", port));
+    Map<Object, Object> store = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    try (MeshMapServer meshMapServer = new MeshMapServer(server, message -> handle(store, message), executor)) {
+      meshMapServer.start();
+      Thread.sleep(500);
+
+      try (MeshMapClient client = new MeshMapClient(new ConnectionPool.Builder().setKeepAlive(false).build())) {
+        run("socket per message", client, server);
+      }
+
+      try (MeshMapClient client = new MeshMapClient(new ConnectionPool.Builder().build())) {
+        run("pooled connections", client, server);
+        runPipelined(client, server);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void run(String name, MeshMapClient client, Node server) {
+    out.println("--- " + name);
+
+    Timer.time("PUT", COUNT, i -> {
+      try {
+        client.message(server, new Message(TYPE_PUT, new MeshMapImpl.Entry("key-" + i, i)));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    Timer.time("GET", COUNT, i -> {
+      try {
+        client.message(server, new Message(TYPE_GET, "key-" + i));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  private static void runPipelined(MeshMapClient client, Node server) {
+    out.println("--- pipelined connection");
+    List<CompletableFuture<Message>> responses = new ArrayList<>(COUNT);
+
+    // Every iteration only sends; the wait for all responses is timed separately below.
+    Timer.time("PUT (send)", COUNT, i ->
+        responses.add(client.messageAsync(server, new Message(TYPE_PUT, new MeshMapImpl.Entry("key-" + i, i)))));
+    Timer.time("PUT (await)", 1, i -> CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join());
+    responses.clear();
+
+    Timer.time("GET (send)", COUNT, i -> responses.add(client.messageAsync(server, new Message(TYPE_GET, "key-" + i))));
+    Timer.time("GET (await)", 1, i -> CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join());
+  }
+
+  private static Message handle(Map<Object, Object> store, Message message) {
+    switch (message.getType()) {
+      case TYPE_PUT: {
+        MeshMapImpl.Entry entry = message.getPayload(MeshMapImpl.Entry.class);
+        store.put(entry.getKey(), entry.getValue());
+        return Message.ACK;
+      }
+
+      case TYPE_GET: {
+        return new Message(TYPE_GET, store.get(message.getPayload(Object.class)));
+      }
+
+      default: {
+        return Message.ACK;
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Codecs;
+
+import java.util.UUID;
+
+import static java.lang.System.out;
+
+/**
+ * Encodes and decodes the same PUT payloads with each built-in codec and prints time and payload size.
+ */
+public class CodecBenchmark {
+  private static final int COUNT = 200_000;
+
+  public static void main(String[] args) {
+    MeshMapImpl.Entry[] entries = new MeshMapImpl.Entry[COUNT];
+
+    for (int i = 0; i < COUNT; i++) {
+      entries[i] = new MeshMapImpl.Entry(UUID.randomUUID().toString(), (long) i);
+    }
+
+    for (Codec codec : new Codec[] {Codecs.JAVA, Codecs.BINARY}) {
+      String name = codec.getClass().getSimpleName();
+      byte[][] encoded = new byte[COUNT][];
+
+      Timer.time(name + " encode", COUNT, i -> encoded[i] = codec.encode(entries[i]));
+      Timer.time(name + " decode", COUNT, i -> codec.decode(encoded[i]));
+      out.println(name + " payload size: " + encoded[0].length + " bytes");
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.EncodedMeshMap;
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.codec.Bytes;
+import jamsesso.meshmap.codec.Codecs;
+
+import java.io.Serializable;
+
+import static java.lang.System.out;
+
+/**
+ * The same puts and gets of a plain Serializable value, once stored as objects and once through an
+ * {@link EncodedMeshMap}, where the nodes keep and serve the encoded bytes without decoding them. Reports the time
+ * taken and the heap the stored entries take after a full collection.
+ *
+ * Arguments: [entries] [first port]
+ */
+public class EncodedMapBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 46500;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      MeshMap<String, Order> map = cluster.map(0);
+      run("objects", map, count);
+    }
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort + 10)) {
+      MeshMap<Bytes, Bytes> encoded = cluster.map(0);
+      run("encoded", new EncodedMeshMap<>(encoded, Codecs.getDefault()), count);
+    }
+  }
+
+  private static void run(String name, MeshMap<String, Order> map, int count) {
+    long heapBefore = usedHeap();
+
+    Timer.time(name + ": put x " + count, 1, ignored -> {
+      for (int i = 0; i < count; i++) {
+        map.put("order-" + i, new Order(i, "customer-" + (i % 1000), i * 1.5, "note for order " + i));
+      }
+    });
+
+    Timer.time(name + ": get x " + count, 1, ignored -> {
+      for (int i = 0; i < count; i++) {
+        if (map.get("order-" + i).id != i) {
+          throw new IllegalStateException("Wrong value for order-" + i);
+        }
+      }
+    });
+
+    out.printf("%s: stored entries take about %d MB of heap%n", name, (usedHeap() - heapBefore) >> 20);
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+  private static class Order implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long id;
+    final String customer;
+    final double total;
+    final String note;
+
+    Order(long id, String customer, double total, String note) {
+      this.id = id;
+      this.customer = customer;
+      this.total = total;
+      this.note = note;
+    }
+  }
+}
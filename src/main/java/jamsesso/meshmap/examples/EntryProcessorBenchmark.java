@@ -0,0 +1,90 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.EntryProcessor;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+
+/**
+ * Threads on every node of an in-process cluster increment shared counters, once with a get followed by a put and
+ * once with an entry processor applied on the owner node. Reports the time taken and how many increments each way
+ * lost to concurrent writers.
+ *
+ * Arguments: [increments per thread] [threads per node] [first port]
+ */
+public class EntryProcessorBenchmark {
+  private static final int COUNTERS = 10;
+
+  public static void main(String[] args) throws Exception {
+    int increments = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 46900;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      List<MeshMapImpl<String, Integer>> maps = new ArrayList<>();
+
+      for (int i = 0; i < 3; i++) {
+        maps.add(cluster.map(i));
+      }
+
+      EntryProcessor<String, Integer, Integer> increment = entry -> {
+        int next = entry.getValue() == null ? 1 : entry.getValue() + 1;
+        entry.setValue(next);
+        return next;
+      };
+
+      run("get + put", maps, increments, threads, (map, key) -> {
+        Integer value = map.get(key);
+        map.put(key, value == null ? 1 : value + 1);
+      });
+
+      run("executeOnKey", maps, increments, threads, (map, key) -> map.executeOnKey(key, increment));
+    }
+  }
+
+  private static void run(String name, List<MeshMapImpl<String, Integer>> maps, int increments, int threads,
+                          Increment increment) {
+    maps.get(0).clear();
+    ExecutorService executor = Executors.newFixedThreadPool(maps.size() * threads);
+
+    Timer.time(name + ": " + maps.size() * threads * increments + " increments", 1, ignored -> {
+      for (MeshMapImpl<String, Integer> map : maps) {
+        for (int t = 0; t < threads; t++) {
+          executor.execute(() -> {
+            for (int i = 0; i < increments; i++) {
+              increment.apply(map, "counter-" + (i % COUNTERS));
+            }
+          });
+        }
+      }
+
+      executor.shutdown();
+
+      try {
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    long total = 0;
+
+    for (int i = 0; i < COUNTERS; i++) {
+      Integer value = maps.get(0).get("counter-" + i);
+      total += value == null ? 0 : value;
+    }
+
+    long expected = (long) maps.size() * threads * increments;
+    out.printf("%s: %d of %d increments kept, %d lost%n", name, total, expected, expected - total);
+  }
+
+  private interface Increment {
+    void apply(MeshMapImpl<String, Integer> map, String key);
+  }
+}
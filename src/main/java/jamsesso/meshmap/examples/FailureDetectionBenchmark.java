@@ -0,0 +1,69 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.WriteConsistency;
+
+import static java.lang.System.out;
+
+/**
+ * Crashes a node of a replicated in-process cluster without telling the others (its discovery file stays) and
+ * measures how long failure detection takes to take it out of every ring, then how many keys are still readable.
+ *
+ * Arguments: [entries] [heartbeat interval in ms] [phi threshold] [first port]
+ */
+public class FailureDetectionBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    long interval = args.length > 1 ? Long.parseLong(args[1]) : 100;
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 8;
+    int firstPort = args.length > 3 ? Integer.parseInt(args[3]) : 47300;
+    int nodes = 4;
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      for (int i = 0; i < nodes; i++) {
+        cluster.map(i).withReplication(2, WriteConsistency.ALL).withFailureDetection(interval, threshold);
+      }
+
+      MeshMapImpl<String, Integer> map = cluster.map(0);
+
+      for (int i = 0; i < count; i++) {
+        map.put("key-" + i, i);
+      }
+
+      // Let every node learn the others' heartbeat rhythm first.
+      Thread.sleep(interval * 20);
+
+      Node crashed = cluster.map(nodes - 1).getCluster().getAllNodes().stream()
+          .filter(node -> node.getAddress().getPort() == firstPort + nodes - 1)
+          .findFirst()
+          .orElseThrow(IllegalStateException::new);
+
+      long start = System.nanoTime();
+      cluster.crash(nodes - 1);
+
+      for (int i = 0; i < nodes - 1; i++) {
+        while (cluster.map(i).getCluster().getAllNodes().contains(crashed)) {
+          Thread.sleep(5);
+        }
+
+        out.printf("node %d took %s out of its ring after %d ms%n", i, crashed, (System.nanoTime() - start) / 1_000_000);
+      }
+
+      int found = 0;
+
+      for (int i = 0; i < count; i++) {
+        if (Integer.valueOf(i).equals(map.get("key-" + i))) {
+          found++;
+        }
+      }
+
+      out.println("after the crash: " + found + "/" + count + " keys readable, size " + map.size());
+
+      for (int i = 0; i < nodes - 1; i++) {
+        out.printf("node %d: %d suspicions, %d exclusions%n", i,
+            cluster.map(i).getMembership().getSuspicions(), cluster.map(i).getMembership().getExclusions());
+      }
+    }
+  }
+}
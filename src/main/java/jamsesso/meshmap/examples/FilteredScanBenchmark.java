@@ -0,0 +1,68 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.CloseableIterator;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * Finds the few entries matching a predicate on their value, once by iterating over every entry and filtering here,
+ * and once with a scan that filters (and projects) on the nodes.
+ *
+ * Arguments: [entries] [first port]
+ */
+public class FilteredScanBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 46700;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      MeshMapImpl<String, String> map = cluster.map(0);
+      Map<String, String> batch = new HashMap<>();
+
+      for (int i = 0; i < count; i++) {
+        batch.put("key-" + i, "value-" + i + "-" + (i % 1000 == 0 ? "rare" : "common"));
+
+        if (batch.size() == 100_000) {
+          map.putAll(batch);
+          batch.clear();
+        }
+      }
+
+      map.putAll(batch);
+      int[] found = new int[3];
+
+      Timer.time("entrySet() filtered here", 1, ignored -> {
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+          if (entry.getValue().endsWith("rare")) {
+            found[0]++;
+          }
+        }
+      });
+
+      Timer.time("scan(filter)", 1, ignored -> {
+        try (CloseableIterator<Map.Entry<String, String>> matches = map.scan((key, value) -> value.endsWith("rare"))) {
+          while (matches.hasNext()) {
+            matches.next();
+            found[1]++;
+          }
+        }
+      });
+
+      Timer.time("scan(filter, projection)", 1, ignored -> {
+        try (CloseableIterator<Map.Entry<String, Integer>> matches =
+                 map.scan((key, value) -> value.endsWith("rare"), (key, value) -> value.length())) {
+          while (matches.hasNext()) {
+            matches.next();
+            found[2]++;
+          }
+        }
+      });
+
+      out.println("matches: " + found[0] + " / " + found[1] + " / " + found[2]);
+    }
+  }
+}
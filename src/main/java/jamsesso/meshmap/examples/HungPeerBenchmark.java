@@ -0,0 +1,85 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.client.BroadcastResult;
+import jamsesso.meshmap.client.ConnectionPool;
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.codec.Codecs;
+import jamsesso.meshmap.server.MessageHandlerImpl;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.lang.System.out;
+
+/**
+ * Broadcasts SIZE to an in-process cluster plus one peer that accepts connections but never answers. With a read
+ * timeout the broadcast returns after that timeout, with the live nodes' answers and the hung peer reported as
+ * failed. Then reads keys with hedging on and reports how many second copies were sent.
+ *
+ * Arguments: [read timeout in ms] [hedge delay in ms] [first port]
+ */
+public class HungPeerBenchmark {
+  public static void main(String[] args) throws Exception {
+    long readTimeout = args.length > 0 ? Long.parseLong(args[0]) : 500;
+    long hedgeDelay = args.length > 1 ? Long.parseLong(args[1]) : 2;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 47200;
+
+    List<Socket> held = new ArrayList<>();
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort);
+         ServerSocket hung = new ServerSocket(firstPort + 10)) {
+      Thread acceptor = new Thread(() -> {
+        try {
+          while (true) {
+            held.add(hung.accept());
+          }
+        } catch (Exception e) {
+          // Closed at the end of the run.
+        }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      List<Node> nodes = new ArrayList<>(cluster.map(0).getCluster().getAllNodes());
+      nodes.add(new Node(UUID.randomUUID(), new InetSocketAddress("127.0.0.1", firstPort + 10)));
+
+      ConnectionPool pool = new ConnectionPool.Builder().setReadTimeoutMillis(readTimeout).build();
+
+      try (MeshMapClient client = new MeshMapClient(pool)) {
+        BroadcastResult[] result = new BroadcastResult[1];
+        Timer.time("broadcast SIZE to " + nodes.size() + " nodes, one hung", 1,
+            ignored -> result[0] = client.broadcast(nodes, new Message(MessageHandlerImpl.TYPE_SIZE), true));
+        out.println(result[0]);
+
+        for (int i = 0; i < 1_000; i++) {
+          cluster.map(0).put("key-" + i, "value-" + i);
+        }
+
+        client.withHedging(hedgeDelay);
+        Node target = nodes.get(1);
+
+        Timer.time("hedged GET x 10000", 1, ignored -> {
+          for (int i = 0; i < 10_000; i++) {
+            try {
+              client.messageHedged(target, new Message(MessageHandlerImpl.TYPE_GET, "key-" + (i % 1_000), Codecs.getDefault()));
+            } catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        });
+
+        out.println("hedges sent: " + client.getHedges());
+      }
+    } finally {
+      for (Socket socket : held) {
+        socket.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * Time for a node to join a loaded cluster and pull the entries of the ranges it takes over.
+ *
+ * Arguments: [entries] [nodes] [first port]
+ */
+public class JoinBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 45700;
+
+    Map<String, Integer> data = new HashMap<>(count * 2);
+
+    for (int i = 0; i < count; i++) {
+      data.put("key-" + i, i);
+    }
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMap<String, Integer> map = cluster.map(0);
+      map.putAll(data);
+      out.println("loaded " + map.size() + " entries on " + nodes + " nodes");
+
+      Timer.time("join", 1, i -> {
+        try {
+          int joined = cluster.addNode();
+          out.println("new node holds " + cluster.map(joined).getLocalStore().size() + " entries");
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+
+      out.println("size after join: " + map.size());
+      out.println("spot check: key-42 = " + map.get("key-42") + ", key-" + (count - 1) + " = " + map.get("key-" + (count - 1)));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.KeyHasher;
+import jamsesso.meshmap.KeyHashers;
+import jamsesso.meshmap.LocalMeshMapCluster;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.RoutingTable;
+import jamsesso.meshmap.codec.Codecs;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+import static java.lang.System.out;
+
+/**
+ * How evenly each {@link KeyHasher} spreads common key sets (sequential Integers and Longs, random UUIDs, prefixed
+ * Strings) over the ring. Prints the smallest and largest number of keys a node gets as a multiple of the fair
+ * share (1.00 is perfect), and the time spent hashing.
+ *
+ * Arguments: [nodes] [keys]
+ */
+public class KeySkewReport {
+  public static void main(String[] args) {
+    int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+    int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+    List<Node> nodes = new ArrayList<>();
+
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new Node(new InetSocketAddress("127.0.0.1", 40000 + i)));
+    }
+
+    Map<String, IntFunction<Object>> keySets = new LinkedHashMap<>();
+    keySets.put("Integer", i -> i);
+    keySets.put("Long", i -> (long) i);
+    keySets.put("UUID", i -> UUID.randomUUID());
+    keySets.put("String", i -> "key-" + i);
+
+    Map<String, KeyHasher> hashers = new LinkedHashMap<>();
+    hashers.put("hashCode", KeyHashers.HASH_CODE);
+    hashers.put("mixed", KeyHashers.MIXED);
+    hashers.put("murmur3", KeyHashers.murmur3(Codecs.BINARY));
+
+    out.printf("%d nodes, %d virtual nodes each, %d keys%n", nodeCount, LocalMeshMapCluster.DEFAULT_VIRTUAL_NODES, keyCount);
+    out.printf("%-8s %-10s %10s %10s %12s%n", "keys", "hasher", "min keys", "max keys", "ns/hash");
+
+    for (Map.Entry<String, IntFunction<Object>> keySet : keySets.entrySet()) {
+      Object[] keys = new Object[keyCount];
+
+      for (int i = 0; i < keyCount; i++) {
+        keys[i] = keySet.getValue().apply(i);
+      }
+
+      for (Map.Entry<String, KeyHasher> hasher : hashers.entrySet()) {
+        RoutingTable table = RoutingTable.of(nodes, LocalMeshMapCluster.DEFAULT_VIRTUAL_NODES, hasher.getValue(), 0);
+        Map<Node, Integer> counts = new HashMap<>();
+
+        long start = System.nanoTime();
+
+        for (Object key : keys) {
+          counts.merge(table.getNodeForKey(key), 1, Integer::sum);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        double fair = keyCount / (double) nodeCount;
+        int min = counts.size() < nodeCount ? 0 : counts.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+        int max = counts.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+
+        out.printf("%-8s %-10s %10.2f %10.2f %12.1f%n",
+            keySet.getKey(), hasher.getKey(), min / fair, max / fair, elapsed / (double) keyCount);
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.out;
+
+/**
+ * Time for a node of a loaded cluster to hand its entries off and leave, with progress reported every 10%.
+ *
+ * Arguments: [entries] [nodes] [first port]
+ */
+public class LeaveBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 45800;
+
+    Map<String, Integer> data = new HashMap<>(count * 2);
+
+    for (int i = 0; i < count; i++) {
+      data.put("key-" + i, i);
+    }
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMap<String, Integer> map = cluster.map(0);
+      map.putAll(data);
+
+      MeshMapImpl<String, Integer> leaving = cluster.map(nodes - 1);
+      out.println("leaving node holds " + leaving.getLocalStore().size() + " of " + map.size() + " entries");
+
+      AtomicInteger reported = new AtomicInteger();
+
+      Timer.time("leave", 1, i -> leaving.leave((transferred, total) -> {
+        int decile = (int) (transferred * 10 / total);
+
+        if (decile > reported.getAndAccumulate(decile, Math::max)) {
+          out.println("  handed off " + transferred + "/" + total + " (" + decile * 10 + "%)");
+        }
+      }));
+
+      out.println("size after leave: " + map.size());
+      out.println("spot check: key-42 = " + map.get("key-42") + ", key-" + (count - 1) + " = " + map.get("key-" + (count - 1)));
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.CachedMeshMapCluster;
+import jamsesso.meshmap.LocalMeshMapCluster;
+import jamsesso.meshmap.Membership;
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.codec.Codecs;
+import jamsesso.meshmap.server.MeshMapServer;
+import jamsesso.meshmap.server.MessageHandlerImpl;
+import jamsesso.meshmap.store.HeapLocalStore;
+import jamsesso.meshmap.store.LocalStore;
+import jamsesso.meshmap.store.MVStoreLocalStore;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Runs several nodes inside one JVM, each with its own server on a local port, sharing a temporary discovery
+ * directory. Used by the benchmarks.
+ */
+public class LocalCluster implements AutoCloseable {
+  private final File directory;
+  private final int firstPort;
+  private final LocalMeshMapCluster discovery;
+  private final IntFunction<LocalStore> stores;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final List<MeshMapImpl<Object, Object>> maps = new ArrayList<>();
+  private final List<MeshMapServer> servers = new ArrayList<>();
+  private final List<MeshMapClient> clients = new ArrayList<>();
+  private final List<Node> nodes = new ArrayList<>();
+  private final Set<Integer> killed = new HashSet<>();
+
+  public LocalCluster(int nodes, int firstPort) throws Exception {
+    this(nodes, firstPort, HeapLocalStore::new);
+  }
+
+  public LocalCluster(int nodes, int firstPort, Supplier<LocalStore> stores) throws Exception {
+    this(nodes, firstPort, node -> stores.get());
+  }
+
+  /**
+   * @param stores creates the local store of the node with the given index, also when it is restarted. A node whose
+   *               store is an {@link MVStoreLocalStore} takes the node ID saved in it.
+   */
+  public LocalCluster(int nodes, int firstPort, IntFunction<LocalStore> stores) throws Exception {
+    this.directory = Files.createTempDirectory("meshmap").toFile();
+    this.firstPort = firstPort;
+    this.discovery = new LocalMeshMapCluster(directory);
+    this.stores = stores;
+
+    for (int i = 0; i < nodes; i++) {
+      start(i);
+    }
+
+    // Give the acceptors a moment to bind.
+    Thread.sleep(200);
+  }
+
+  /**
+   * Starts one more node on the next port, tells the others about it (as its HI broadcast would) and lets it pull
+   * the entries it now owns.
+   *
+   * @return the index of the new node
+   */
+  public int addNode() throws Exception {
+    MeshMapImpl<Object, Object> map = start(maps.size());
+    Thread.sleep(200);
+
+    for (MeshMapImpl<Object, Object> other : maps) {
+      other.getCluster().clearCache();
+    }
+
+    map.open();
+    return maps.size() - 1;
+  }
+
+  /**
+   * Stops a node without a handoff, as if it crashed, and tells the others it is gone (as a BYE or failure
+   * detection would). Whatever it held is only still available on its replicas.
+   */
+  public void kill(int node) throws Exception {
+    stop(node);
+    discovery.leave(nodes.get(node));
+    refreshOthers(node);
+  }
+
+  /**
+   * Stops a node without a handoff and without telling anyone: its discovery file stays, and the others only find
+   * out through failure detection.
+   */
+  public void crash(int node) throws Exception {
+    stop(node);
+  }
+
+  /**
+   * Starts a killed node again on the same port with a store from the store factory (which may reload what the old
+   * one persisted), tells the others about it (as its HI broadcast would) and lets it pull what it is missing.
+   */
+  public void restart(int node) throws Exception {
+    restart(node, map -> {
+    });
+  }
+
+  /**
+   * Like {@link #restart(int)}, with the new map configured (e.g. with the replication the others use) before it
+   * pulls anything.
+   */
+  public void restart(int node, Consumer<MeshMapImpl<Object, Object>> configure) throws Exception {
+    killed.remove(node);
+    MeshMapImpl<Object, Object> map = start(node);
+    configure.accept(map);
+    Thread.sleep(200);
+    refreshOthers(node);
+    map.open();
+  }
+
+  private void stop(int node) throws Exception {
+    killed.add(node);
+    Membership membership = maps.get(node).getMembership();
+
+    if (membership != null) {
+      membership.close();
+    }
+
+    servers.get(node).close();
+    clients.get(node).close();
+    // Releases the store (and its file, so that a restart can open it again); a persistent store keeps what it had
+    // committed, as after a crash.
+    maps.get(node).getLocalStore().close();
+  }
+
+  private void refreshOthers(int node) {
+    for (int i = 0; i < maps.size(); i++) {
+      if (i != node && !killed.contains(i)) {
+        maps.get(i).getCluster().clearCache();
+        maps.get(i).rebalanceReplicas();
+      }
+    }
+  }
+
+  private MeshMapImpl<Object, Object> start(int index) throws Exception {
+    LocalStore store = stores.apply(index);
+    UUID id = store instanceof MVStoreLocalStore ? ((MVStoreLocalStore) store).getNodeId() : UUID.randomUUID();
+    Node self = new Node(id, new InetSocketAddress("127.0.0.1", firstPort + index));
+    discovery.join(self);
+
+    MeshMapClient client = new MeshMapClient();
+    MeshMapImpl<Object, Object> map = new MeshMapImpl<>(new CachedMeshMapCluster(directory), client, self, Codecs.getDefault(), store);
+    MeshMapServer server = new MeshMapServer(self, new MessageHandlerImpl(map, map.getCluster()), executor);
+    server.start();
+
+    set(clients, index, client);
+    set(maps, index, map);
+    set(servers, index, server);
+    set(nodes, index, self);
+    return map;
+  }
+
+  private static <T> void set(List<T> list, int index, T element) {
+    if (index == list.size()) {
+      list.add(element);
+    } else {
+      list.set(index, element);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public <K, V> MeshMapImpl<K, V> map(int node) {
+    return (MeshMapImpl<K, V>) (MeshMapImpl<?, ?>) maps.get(node);
+  }
+
+  @Override
+  public void close() throws Exception {
+    for (int i = 0; i < servers.size(); i++) {
+      if (!killed.contains(i)) {
+        Membership membership = maps.get(i).getMembership();
+
+        if (membership != null) {
+          membership.close();
+        }
+
+        servers.get(i).close();
+        clients.get(i).close();
+        maps.get(i).getLocalStore().close();
+      }
+    }
+
+    executor.shutdownNow();
+
+    File[] files = directory.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+}
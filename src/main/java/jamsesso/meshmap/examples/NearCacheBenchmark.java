@@ -0,0 +1,55 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+
+/**
+ * Read-mostly workload with and without a near cache, then how long a write on another node takes to invalidate a
+ * cached value.
+ *
+ * Arguments: [reads] [distinct keys] [nodes] [first port]
+ */
+public class NearCacheBenchmark {
+  public static void main(String[] args) throws Exception {
+    int reads = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+    int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int firstPort = args.length > 3 ? Integer.parseInt(args[3]) : 46000;
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMapImpl<String, Integer> plain = cluster.map(0);
+      MeshMapImpl<String, Integer> cached = cluster.<String, Integer>map(1).withNearCache(keys, 1, TimeUnit.MINUTES);
+      MeshMapImpl<String, Integer> writer = cluster.map(nodes - 1);
+
+      for (int i = 0; i < keys; i++) {
+        plain.put("key-" + i, i);
+      }
+
+      Timer.time("get x " + reads + " (no near cache)", 1, ignored -> read(plain, reads, keys));
+      Timer.time("get x " + reads + " (near cache)", 1, ignored -> read(cached, reads, keys));
+      out.println(cached.getNearCache());
+
+      cached.get("key-1");
+      long start = System.nanoTime();
+      writer.put("key-1", -1);
+
+      while (cached.get("key-1") != -1) {
+        Thread.sleep(1);
+      }
+
+      out.printf("write on another node visible through the near cache after %.2f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+  }
+
+  private static void read(MeshMapImpl<String, Integer> map, int reads, int keys) {
+    Random random = new Random(42);
+
+    for (int i = 0; i < reads; i++) {
+      map.get("key-" + random.nextInt(keys));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.store.HeapLocalStore;
+import jamsesso.meshmap.store.LocalStore;
+import jamsesso.meshmap.store.OffHeapLocalStore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static java.lang.System.out;
+
+/**
+ * Fills a heap store and an off-heap store with the same entries and compares write and read time, the heap left in
+ * use after a full collection, the collections needed along the way and the memory held outside the heap. Then runs
+ * the same gets through an in-process cluster backed by off-heap stores, where values are sent without decoding.
+ *
+ * Arguments: [entries] [value size] [first port]
+ */
+public class OffHeapStoreBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 46300;
+
+    StringBuilder padding = new StringBuilder();
+
+    while (padding.length() < valueSize) {
+      padding.append('x');
+    }
+
+    String value = padding.toString();
+
+    report("heap", HeapLocalStore::new, count, value);
+    report("off-heap", OffHeapLocalStore::new, count, value);
+
+    int clusterCount = Math.min(count, 100_000);
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort, OffHeapLocalStore::new)) {
+      MeshMap<String, String> map = cluster.map(0);
+
+      Timer.time("cluster put x " + clusterCount + " (off-heap)", 1, ignored -> {
+        for (int i = 0; i < clusterCount; i++) {
+          map.put("key-" + i, value);
+        }
+      });
+
+      Timer.time("cluster get x " + clusterCount + " (off-heap)", 1, ignored -> {
+        for (int i = 0; i < clusterCount; i++) {
+          if (map.get("key-" + i) == null) {
+            throw new IllegalStateException("Missing key-" + i);
+          }
+        }
+      });
+    }
+  }
+
+  private static void report(String name, Supplier<LocalStore> stores, int count, String value) {
+    LocalStore store = stores.get();
+    long collections = collections();
+    long collectionTime = collectionTime();
+
+    Timer.time(name + " put x " + count, 1, ignored -> {
+      for (int i = 0; i < count; i++) {
+        store.put("key-" + i, i + value);
+      }
+    });
+
+    Timer.time(name + " get x " + count, 1, ignored -> {
+      for (int i = 0; i < count; i++) {
+        store.get("key-" + i);
+      }
+    });
+
+    long gcs = collections() - collections;
+    long gcTime = collectionTime() - collectionTime;
+
+    System.gc();
+    long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+    out.printf("%s: %d entries, heap in use %d MB, off-heap %d MB, %d collections taking %d ms%n",
+        name, store.size(), heap >> 20, store.getOffHeapBytes() >> 20, gcs, gcTime);
+
+    store.close();
+    System.gc();
+  }
+
+  private static long collections() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+  }
+
+  private static long collectionTime() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+  }
+}
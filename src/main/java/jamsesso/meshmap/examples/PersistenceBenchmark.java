@@ -0,0 +1,112 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.WriteConsistency;
+import jamsesso.meshmap.store.HeapLocalStore;
+import jamsesso.meshmap.store.LocalStore;
+import jamsesso.meshmap.store.MVStoreLocalStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+import static java.lang.System.out;
+
+/**
+ * Put throughput without persistence, with MVStore write-behind and with a commit per write. Then kills a node of a
+ * replicated cluster backed by MVStore files, keeps writing and removes some of its keys, restarts it from its file
+ * and checks that every key is there and that the removed ones stay removed.
+ *
+ * Arguments: [entries] [first port]
+ */
+public class PersistenceBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 46400;
+    File directory = Files.createTempDirectory("meshmap-store").toFile();
+
+    try {
+      put("heap", HeapLocalStore::new, count);
+      put("mvstore, write-behind " + MVStoreLocalStore.DEFAULT_WRITE_DELAY + "ms",
+          () -> new MVStoreLocalStore(new File(directory, "write-behind.mv")), count);
+      put("mvstore, commit per write", () -> new MVStoreLocalStore(new File(directory, "sync.mv"), 0), count / 100);
+
+      restart(directory, Math.min(count, 100_000), firstPort);
+    } finally {
+      File[] files = directory.listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+
+      directory.delete();
+    }
+  }
+
+  private static void put(String name, Supplier<LocalStore> stores, int count) {
+    try (LocalStore store = stores.get()) {
+      Timer.time(name + ": put x " + count, 1, ignored -> {
+        for (int i = 0; i < count; i++) {
+          store.put("key-" + i, "value-" + i);
+        }
+      });
+    }
+  }
+
+  private static void restart(File directory, int count, int firstPort) throws Exception {
+    try (LocalCluster cluster = new LocalCluster(3, firstPort, node -> new MVStoreLocalStore(new File(directory, "node-" + node + ".mv")))) {
+      for (int i = 0; i < 3; i++) {
+        cluster.map(i).withReplication(2, WriteConsistency.ALL);
+      }
+
+      MeshMap<String, Integer> map = cluster.map(0);
+
+      for (int i = 0; i < count; i++) {
+        map.put("key-" + i, i);
+      }
+
+      out.println("node 1 holds " + cluster.map(1).getLocalStore().size() + " entries when killed");
+      cluster.kill(1);
+
+      // Written while node 1 is away: its share of these goes to the node after it on the ring.
+      for (int i = count; i < count + count / 10; i++) {
+        map.put("key-" + i, i);
+      }
+
+      // Removed while node 1 is away: its file still has its share of these.
+      int removed = 0;
+
+      for (int i = 0; i < count; i += 10) {
+        map.remove("key-" + i);
+        removed++;
+      }
+
+      Timer.time("restart node 1", 1, ignored -> {
+        try {
+          cluster.restart(1, restarted -> restarted.withReplication(2, WriteConsistency.ALL));
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      out.println("node 1 holds " + cluster.map(1).getLocalStore().size() + " entries after restart");
+      int found = 0;
+      int resurrected = 0;
+
+      for (int i = 0; i < count + count / 10; i++) {
+        Integer value = map.get("key-" + i);
+
+        if (i < count && i % 10 == 0) {
+          resurrected += value != null ? 1 : 0;
+        } else if (Integer.valueOf(i).equals(value)) {
+          found++;
+        }
+      }
+
+      out.println(found + " of " + (count + count / 10 - removed) + " keys readable");
+      out.println(resurrected + " of " + removed + " keys removed while node 1 was away came back");
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.WriteConsistency;
+
+import static java.lang.System.out;
+
+/**
+ * Cost of replicated writes for each write consistency, then what survives when a node is killed without a handoff.
+ *
+ * Arguments: [operations] [nodes] [replication factor] [first port]
+ */
+public class ReplicationBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int replicationFactor = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+    int firstPort = args.length > 3 ? Integer.parseInt(args[3]) : 45900;
+
+    try (LocalCluster cluster = new LocalCluster(nodes, firstPort)) {
+      MeshMapImpl<String, Integer> map = cluster.map(0);
+
+      run(cluster, nodes, 1, WriteConsistency.ONE, count);
+      run(cluster, nodes, replicationFactor, WriteConsistency.ONE, count);
+      run(cluster, nodes, replicationFactor, WriteConsistency.ALL, count);
+
+      Timer.time("get x " + count + " (replica reads)", 1, ignored -> {
+        for (int i = 0; i < count; i++) {
+          map.get("key-" + i);
+        }
+      });
+
+      cluster.kill(nodes - 1);
+      int found = 0;
+
+      for (int i = 0; i < count; i++) {
+        if (Integer.valueOf(i).equals(map.get("key-" + i))) {
+          found++;
+        }
+      }
+
+      out.println("after killing a node: " + found + "/" + count + " keys readable, size " + map.size());
+    }
+  }
+
+  private static void run(LocalCluster cluster, int nodes, int replicationFactor, WriteConsistency consistency, int count) {
+    for (int i = 0; i < nodes; i++) {
+      cluster.map(i).withReplication(replicationFactor, consistency).withReplicaReads(true);
+    }
+
+    MeshMapImpl<String, Integer> map = cluster.map(0);
+    map.clear();
+
+    Timer.time("put x " + count + " (R=" + replicationFactor + ", " + consistency + ")", 1, ignored -> {
+      for (int i = 0; i < count; i++) {
+        map.put("key-" + i, i);
+      }
+    });
+  }
+}
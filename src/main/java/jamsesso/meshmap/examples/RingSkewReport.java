@@ -0,0 +1,70 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.RoutingTable;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * How evenly the ring spreads keys for different numbers of virtual nodes. For each setting it prints the smallest
+ * and largest share of the hash space a node owns, and the smallest and largest number of sample keys a node gets,
+ * as a multiple of the fair share (1.00 is perfect).
+ *
+ * Arguments: [nodes] [keys] [virtual nodes...]
+ */
+public class RingSkewReport {
+  public static void main(String[] args) {
+    int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+    int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    int[] settings = {1, 8, 32, 64, 128, 256};
+
+    if (args.length > 2) {
+      settings = new int[args.length - 2];
+
+      for (int i = 2; i < args.length; i++) {
+        settings[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    List<Node> nodes = new ArrayList<>();
+
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new Node(new InetSocketAddress("127.0.0.1", 40000 + i)));
+    }
+
+    out.printf("%d nodes, %d keys%n", nodeCount, keyCount);
+    out.printf("%8s %10s %10s %10s %10s%n", "vnodes", "min space", "max space", "min keys", "max keys");
+
+    for (int virtualNodes : settings) {
+      RoutingTable table = RoutingTable.of(nodes, virtualNodes, 0);
+      double fair = 1.0 / nodeCount;
+
+      double minSpace = Double.MAX_VALUE;
+      double maxSpace = 0;
+
+      for (double share : table.getOwnership().values()) {
+        minSpace = Math.min(minSpace, share / fair);
+        maxSpace = Math.max(maxSpace, share / fair);
+      }
+
+      Map<Node, Integer> keys = new HashMap<>();
+
+      for (int i = 0; i < keyCount; i++) {
+        keys.merge(table.getNodeForKey("key-" + i), 1, Integer::sum);
+      }
+
+      double fairKeys = keyCount / (double) nodeCount;
+      int minKeys = keys.size() < nodeCount ? 0 : keys.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+      int maxKeys = keys.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+
+      out.printf("%8d %10.2f %10.2f %10.2f %10.2f%n",
+          virtualNodes, minSpace, maxSpace, minKeys / fairKeys, maxKeys / fairKeys);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.CachedMeshMapCluster;
+import jamsesso.meshmap.LocalMeshMapCluster;
+import jamsesso.meshmap.MeshMapCluster;
+import jamsesso.meshmap.Node;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+import static java.lang.System.out;
+
+/**
+ * Cost of finding the node that owns a key: reading the discovery directory on every lookup versus a binary search
+ * over the cached routing table. Reports time and bytes allocated per lookup.
+ *
+ * Arguments: [nodes] [lookups]
+ */
+public class RoutingBenchmark {
+  public static void main(String[] args) throws Exception {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+    File directory = Files.createTempDirectory("meshmap-routing").toFile();
+    LocalMeshMapCluster uncached = new LocalMeshMapCluster(directory);
+
+    for (int i = 0; i < nodes; i++) {
+      uncached.join(new Node(new InetSocketAddress("127.0.0.1", 40000 + i)));
+    }
+
+    String[] keys = new String[1024];
+
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "key-" + i;
+    }
+
+    try {
+      // The directory scan is orders of magnitude slower, so it gets fewer iterations.
+      report("directory scan per lookup", uncached, keys, Math.max(1, lookups / 100));
+      report("routing table", new CachedMeshMapCluster(directory), keys, lookups);
+    } finally {
+      File[] files = directory.listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+
+      directory.delete();
+    }
+  }
+
+  private static void report(String name, MeshMapCluster cluster, String[] keys, int lookups) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    int checksum = 0;
+
+    // Warm up.
+    for (int i = 0; i < lookups; i++) {
+      checksum += cluster.getNodeForKey(keys[i & (keys.length - 1)]).getId();
+    }
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+
+    for (int i = 0; i < lookups; i++) {
+      checksum += cluster.getNodeForKey(keys[i & (keys.length - 1)]).getId();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    out.printf("%-30s %10.1f ns/op %10.1f bytes/op (checksum %d)%n",
+        name, elapsed / (double) lookups, allocated / (double) lookups, checksum);
+  }
+}
@@ -0,0 +1,56 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * Iterates over the entries, keys and values of a loaded in-process cluster. The iterators page through each node,
+ * holding at most two chunks per node at a time, so iterating needs the same memory whatever the number of entries.
+ *
+ * Arguments: [entries] [first port]
+ */
+public class ScanBenchmark {
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 46600;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      MeshMap<String, String> map = cluster.map(0);
+      Map<String, String> batch = new HashMap<>();
+
+      for (int i = 0; i < count; i++) {
+        batch.put("key-" + i, "value-" + i);
+
+        if (batch.size() == 100_000) {
+          map.putAll(batch);
+          batch.clear();
+        }
+      }
+
+      map.putAll(batch);
+      batch.clear();
+
+      iterate("entrySet", map.entrySet().iterator());
+      iterate("keySet", map.keySet().iterator());
+      iterate("values", map.values().iterator());
+    }
+  }
+
+  private static void iterate(String name, Iterator<?> iterator) {
+    int[] seen = {0};
+
+    Timer.time(name + " iteration", 1, ignored -> {
+      while (iterator.hasNext()) {
+        iterator.next();
+        seen[0]++;
+      }
+    });
+
+    out.println(name + ": " + seen[0] + " elements");
+  }
+}
@@ -0,0 +1,87 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.Message;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.client.ConnectionPool;
+import jamsesso.meshmap.client.MeshMapClient;
+import jamsesso.meshmap.server.MeshMapServer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.System.out;
+
+/**
+ * Load test for the server engine. Runs the same CPU bound request mix against servers with 1, 2, 4, ... worker
+ * threads (up to the number of cores) and prints the throughput of each, which should grow with the worker count.
+ *
+ * Arguments: [port] [client threads] [seconds per run]
+ */
+public class ServerLoadTest {
+  private static final int WORK_ITERATIONS = 20_000;
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 45300;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    out.println("cores=" + cores + ", client threads=" + clients + ", seconds per run=" + seconds);
+
+    for (int workers = 1; workers <= cores; workers *= 2) {
+      double throughput = run(port++, workers, clients, seconds);
+      out.printf("workers=%-3d %,12.0f req/s%n", workers, throughput);
+    }
+  }
+
+  private static double run(int port, int workers, int clients, int seconds) throws Exception {
+    Node node = new Node(new InetSocketAddress("127.0.0.1", port));
+    ExecutorService acceptor = Executors.newSingleThreadExecutor();
+    ExecutorService load = Executors.newFixedThreadPool(clients);
+    LongAdder completed = new LongAdder();
+
+    try (MeshMapServer server = new MeshMapServer(node, ServerLoadTest::work, acceptor, 2, workers, 1024);
+         MeshMapClient client = new MeshMapClient(new ConnectionPool.Builder().setMaxConnectionsPerNode(clients).build())) {
+      server.start();
+      Thread.sleep(200);
+
+      long deadline = System.currentTimeMillis() + seconds * 1000L;
+      CountDownLatch done = new CountDownLatch(clients);
+
+      for (int i = 0; i < clients; i++) {
+        load.submit(() -> {
+          try {
+            while (System.currentTimeMillis() < deadline) {
+              client.message(node, Message.PING);
+              completed.increment();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        });
+      }
+
+      done.await();
+      return completed.sum() / (double) seconds;
+    } finally {
+      load.shutdownNow();
+      acceptor.shutdownNow();
+    }
+  }
+
+  private static Message work(Message message) {
+    // Stands in for deserialising and applying a request.
+    long hash = message.getId();
+
+    for (int i = 0; i < WORK_ITERATIONS; i++) {
+      hash = hash * 31 + i;
+    }
+
+    return hash == 42 ? Message.NO : Message.ACK;
+  }
+}
@@ -0,0 +1,69 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.SizeTracker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+
+/**
+ * Calls {@code size()} and {@code isEmpty()} over and over on a loaded in-process cluster, first asking every node each
+ * time and then with size tracking, where the nodes publish their counts and the caller only asks a node whose last
+ * count is older than the staleness bound.
+ *
+ * Arguments: [calls] [staleness bound in ms] [first port]
+ */
+public class SizeBenchmark {
+  public static void main(String[] args) throws Exception {
+    int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    long staleness = args.length > 1 ? Long.parseLong(args[1]) : 1_000;
+    int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 47000;
+
+    try (LocalCluster cluster = new LocalCluster(3, firstPort)) {
+      MeshMapImpl<String, String> map = cluster.map(0);
+      Map<String, String> batch = new HashMap<>();
+
+      for (int i = 0; i < 100_000; i++) {
+        batch.put("key-" + i, "value-" + i);
+      }
+
+      map.putAll(batch);
+      run("exact", map, calls);
+
+      for (int i = 0; i < 3; i++) {
+        cluster.map(i).withSizeTracking(staleness, TimeUnit.MILLISECONDS);
+      }
+
+      Thread.sleep(100);
+      run("tracked", map, calls);
+
+      SizeTracker tracker = map.getSizeTracker();
+      out.printf("tracked: %d node counts from reports, %d asked for%n", tracker.getHits(), tracker.getMisses());
+
+      map.put("one-more", "value");
+      Thread.sleep(staleness);
+      out.println("tracked size after one more put: " + map.size());
+    }
+  }
+
+  private static void run(String name, MeshMapImpl<String, String> map, int calls) {
+    Timer.time(name + ": size() x " + calls, 1, ignored -> {
+      for (int i = 0; i < calls; i++) {
+        if (map.size() != 100_000) {
+          throw new IllegalStateException("Wrong size: " + map.size());
+        }
+      }
+    });
+
+    Timer.time(name + ": isEmpty() x " + calls, 1, ignored -> {
+      for (int i = 0; i < calls; i++) {
+        if (map.isEmpty()) {
+          throw new IllegalStateException("Map is not empty");
+        }
+      }
+    });
+  }
+}
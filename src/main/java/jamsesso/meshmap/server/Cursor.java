@@ -0,0 +1,18 @@
+package jamsesso.meshmap.server;
+
+import jamsesso.meshmap.MeshMapImpl;
+
+/**
+ * Server side state of a request that is answered in several chunks, each one pulled by the client. Kept in a
+ * {@link CursorRegistry} between requests.
+ */
+public interface Cursor extends AutoCloseable {
+    /**
+     * The next chunk of at most {@code max} entries. An empty chunk means the cursor is exhausted.
+     */
+    MeshMapImpl.Entry[] next(int max);
+
+    @Override
+    default void close() {
+    }
+}
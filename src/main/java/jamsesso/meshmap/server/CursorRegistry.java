@@ -0,0 +1,163 @@
+package jamsesso.meshmap.server;
+
+import jamsesso.meshmap.MeshMapImpl;
+import jamsesso.meshmap.MeshMapRuntimeException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The open cursors of a node, by ID. Chunks are numbered: the client names the chunk it has processed when it asks
+ * for the next one, which acknowledges it. Asking again for a chunk that was already sent (a retry after a lost
+ * response) returns the same chunk instead of skipping it. Cursors the client stops pulling from are closed after
+ * an idle timeout.
+ */
+public class CursorRegistry implements AutoCloseable {
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    private final ConcurrentMap<Integer, Registration> cursors = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final long idleTimeoutMillis;
+
+    public CursorRegistry() {
+        this(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public CursorRegistry(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Registers a cursor and returns its first chunk.
+     */
+    public Chunk open(Cursor cursor, int chunkSize) {
+        expireIdle();
+
+        int id = nextId.incrementAndGet();
+        Registration entry = new Registration(cursor, chunkSize);
+        cursors.put(id, entry);
+        return entry.advance(id);
+    }
+
+    /**
+     * Acknowledges chunk {@code sequence} and returns the one after it, or sends that one again if it was already
+     * sent. The cursor is closed once it returns an empty chunk.
+     */
+    public Chunk next(int id, int sequence) {
+        Registration entry = cursors.get(id);
+
+        if (entry == null) {
+            throw new MeshMapRuntimeException("Unknown or expired cursor " + id);
+        }
+
+        synchronized (entry) {
+            entry.lastAccess = System.currentTimeMillis();
+
+            if (sequence == entry.sequence - 2) {
+                return entry.last;
+            }
+
+            if (sequence != entry.sequence - 1) {
+                throw new MeshMapRuntimeException("Cursor " + id + " sent chunk " + (entry.sequence - 1) + ", not " + sequence);
+            }
+
+            return entry.advance(id);
+        }
+    }
+
+    public void close(int id) {
+        Registration entry = cursors.remove(id);
+
+        if (entry != null) {
+            entry.cursor.close();
+        }
+    }
+
+    public int size() {
+        return cursors.size();
+    }
+
+    @Override
+    public void close() {
+        cursors.keySet().forEach(this::close);
+    }
+
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Integer, Registration>> iterator = cursors.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Registration> entry = iterator.next();
+
+            if (now - entry.getValue().lastAccess > idleTimeoutMillis) {
+                iterator.remove();
+                entry.getValue().cursor.close();
+            }
+        }
+    }
+
+    /**
+     * One chunk of a cursor: {@code [cursor ID, chunk sequence, entries]} on the wire.
+     */
+    public static final class Chunk {
+        private final int cursorId;
+        private final int sequence;
+        private final MeshMapImpl.Entry[] entries;
+
+        public Chunk(int cursorId, int sequence, MeshMapImpl.Entry[] entries) {
+            this.cursorId = cursorId;
+            this.sequence = sequence;
+            this.entries = entries;
+        }
+
+        public int getCursorId() {
+            return cursorId;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+
+        public MeshMapImpl.Entry[] getEntries() {
+            return entries;
+        }
+
+        public boolean isLast() {
+            return entries.length == 0;
+        }
+
+        public Object[] toPayload() {
+            return new Object[]{cursorId, sequence, entries};
+        }
+
+        public static Chunk fromPayload(Object[] payload) {
+            return new Chunk((Integer) payload[0], (Integer) payload[1], (MeshMapImpl.Entry[]) payload[2]);
+        }
+    }
+
+    private final class Registration {
+        final Cursor cursor;
+        final int chunkSize;
+        int sequence;
+        Chunk last;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Registration(Cursor cursor, int chunkSize) {
+            this.cursor = cursor;
+            this.chunkSize = chunkSize;
+        }
+
+        Chunk advance(int id) {
+            last = new Chunk(id, sequence++, cursor.next(chunkSize));
+
+            if (last.isLast()) {
+                CursorRegistry.this.close(id);
+            }
+
+            return last;
+        }
+    }
+}
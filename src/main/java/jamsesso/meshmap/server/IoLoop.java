@@ -0,0 +1,137 @@
+package jamsesso.meshmap.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread. Owns a share of the server's connections: it reads and decodes their frames, passes the
+ * messages on and writes back the responses queued by the workers.
+ */
+class IoLoop implements Runnable, AutoCloseable {
+    private final Selector selector;
+    private final Session.MessageConsumer consumer;
+    private final Queue<Session> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Session> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private volatile boolean closing;
+
+    IoLoop(Session.MessageConsumer consumer) throws IOException {
+        this.selector = Selector.open();
+        this.consumer = consumer;
+    }
+
+    void register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        registrations.add(new Session(channel, this));
+        selector.wakeup();
+    }
+
+    void flushLater(Session session) {
+        pendingFlushes.add(session);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closing) {
+                selector.select();
+                registerPending();
+                flushPending();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Server is going down.
+        } catch (IOException e) {
+            // Only select() throws here, so the selector itself is broken: stop and close this loop's connections.
+            // Failures of a single connection are handled in process() and flushPending().
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Asks the loop to stop. Connections are closed by the loop thread itself so that their buffers are never
+     * returned to the pool while a read is still using them.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        selector.wakeup();
+    }
+
+    private void shutdown() {
+        Session pending;
+
+        while ((pending = registrations.poll()) != null) {
+            pending.close();
+        }
+
+        try {
+            for (SelectionKey key : selector.keys()) {
+                ((Session) key.attachment()).close();
+            }
+
+            selector.close();
+        } catch (ClosedSelectorException | IOException e) {
+            // Already closed.
+        }
+    }
+
+    private void process(SelectionKey key) {
+        Session session = (Session) key.attachment();
+
+        try {
+            if (key.isValid() && key.isReadable() && !session.read(consumer)) {
+                session.close();
+                return;
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                session.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // A broken client only takes its own connection down.
+            session.close();
+        }
+    }
+
+    private void registerPending() {
+        Session session;
+
+        while ((session = registrations.poll()) != null) {
+            try {
+                session.register(session.getChannel().register(selector, SelectionKey.OP_READ, session));
+            } catch (IOException e) {
+                session.close();
+            }
+        }
+    }
+
+    private void flushPending() {
+        Session session;
+
+        while ((session = pendingFlushes.poll()) != null) {
+            try {
+                if (session.getChannel().isOpen()) {
+                    session.flush();
+                }
+            } catch (IOException | RuntimeException e) {
+                session.close();
+            }
+        }
+    }
+}
@@ -5,35 +5,101 @@ import jamsesso.meshmap.*;
 import jamsesso.meshmap.examples.InvocationContext;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-
-
-
-
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Non-blocking server. An acceptor hands new connections to a small set of {@link IoLoop} selector threads, which
+ * decode frames and pass each message to a worker pool sized to the cores. Responses carry the request's
+ * correlation ID and go back through the connection's I/O thread, so one slow request no longer holds up every
+ * other client.
+ *
+ * The worker queue is bounded. When it is full the request is answered with ERR right away rather than run on the
+ * I/O thread: some handlers wait on other nodes, and running one there would stall every connection on that loop.
+ *
+ * On JDK 21+ {@link #withVirtualThreads(int)} replaces the worker pool with a virtual thread per request, bounded
+ * by a concurrency limit; handlers keep their simple blocking code but waiting on I/O no longer pins a worker.
+ * Requests over the limit are answered with ERR as well.
+ */
 public class MeshMapServer implements Runnable, AutoCloseable {
+    private static final int DEFAULT_WORKER_QUEUE_CAPACITY = 1024;
+
     private final MessageHandler messageHandler;
     private final Node self;
     private final ExecutorService service;
-    private ServerSocket serverSocket;
-
+    private final int ioThreads;
+    private final int workerThreads;
+    private final int workerQueueCapacity;
+    private volatile ServerSocketChannel serverChannel;
+    private int maxConcurrentRequests;
+    private IoLoop[] loops;
+    private ExecutorService workers;
+    private Executor requests;
+    private VirtualThreads.BoundedExecutor virtualThreads;
+
+    /**
+     * @param service runs the accept loop, a single task that lasts as long as the server. Connections are never
+     *                served on it but on the server's own I/O and worker threads, so a fixed-size pool shared with
+     *                other work cannot starve the acceptor.
+     */
     public MeshMapServer(Node self, MessageHandler messageHandler, ExecutorService service) {
+        this(self, messageHandler, service,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                Runtime.getRuntime().availableProcessors(),
+                DEFAULT_WORKER_QUEUE_CAPACITY);
+    }
+
+    public MeshMapServer(Node self, MessageHandler messageHandler, ExecutorService service,
+                         int ioThreads, int workerThreads, int workerQueueCapacity) {
         this.self = self;
         this.service = service;
         if (messageHandler == null) {
             throw new IllegalStateException("Cannot restart a dead mesh map server");
         }
+        if (ioThreads < 1 || workerThreads < 1 || workerQueueCapacity < 1) {
+            throw new IllegalArgumentException("I/O threads, worker threads and worker queue capacity must be positive");
+        }
         this.messageHandler = messageHandler;
+        this.ioThreads = ioThreads;
+        this.workerThreads = workerThreads;
+        this.workerQueueCapacity = workerQueueCapacity;
     }
 
 
+    /**
+     * Handles every request on its own virtual thread, with at most {@code maxConcurrentRequests} in progress.
+     * Must be called before {@link #start()}.
+     *
+     * @throws IllegalStateException if the JDK has no virtual threads.
+     */
+    public MeshMapServer withVirtualThreads(int maxConcurrentRequests) {
+        if (!VirtualThreads.isAvailable()) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later");
+        }
+
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
     public Future start() {
-        if (InvocationContext.get().isSyncMode()) {
+        InvocationContext context = InvocationContext.get();
+
+        if (context != null && context.isSyncMode()) {
             run();
         } else {
             return service.submit(this);
@@ -45,40 +111,127 @@ public class MeshMapServer implements Runnable, AutoCloseable {
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(self.getAddress().getPort());
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(self.getAddress().getPort()));
+            startWorkers();
+            startLoops();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        while (!serverSocket.isClosed()) {
-            try (Socket socket = serverSocket.accept();
-                 InputStream inputStream = socket.getInputStream();
-                 OutputStream outputStream = socket.getOutputStream()) {
-                Message message = Message.read(inputStream);
-                Message response = messageHandler.handle(message);
+        int next = 0;
 
-                if (response == null) {
-                    response = Message.ACK;
-                }
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
 
-                response.write(outputStream);
-                outputStream.flush();
-            } catch (SocketException e) {
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
                 // Socket was closed. Nothing to do here. Node is going down.
+                continue;
             } catch (IOException e) {
-                throw new RuntimeException(e);
-                // TODO Better error handling strategy is needed.
-                //err.println("Unable to accept connection");
-                //e.printStackTrace();
+                // The client that was being accepted is lost and will retry; keep serving the others.
+                continue;
+            }
+
+            try {
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                close(channel);
             }
         }
     }
 
     @Override
     public void close() throws Exception {
-        serverSocket.close();
-        System.out.println("closed:" + self);
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+
+        if (loops != null) {
+            for (IoLoop loop : loops) {
+                loop.close();
+            }
+        }
+
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+
+        if (virtualThreads != null) {
+            virtualThreads.close();
+        }
+    }
+
+    private void startWorkers() {
+        if (maxConcurrentRequests > 0) {
+            VirtualThreads.BoundedExecutor bounded = VirtualThreads.newBoundedExecutor(maxConcurrentRequests);
+            requests = task -> {
+                if (!bounded.tryExecute(task)) {
+                    throw new RejectedExecutionException("Concurrency limit reached");
+                }
+            };
+            workers = null;
+            virtualThreads = bounded;
+            return;
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueueCapacity),
+                runnable -> daemon(runnable, "meshmap-worker-" + self.getAddress().getPort() + "-" + count.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        requests = workers;
+    }
+
+    private void startLoops() throws IOException {
+        loops = new IoLoop[ioThreads];
+
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(this::dispatch);
+            daemon(loops[i], "meshmap-io-" + self.getAddress().getPort() + "-" + i).start();
+        }
+    }
+
+    private void dispatch(Session session, Message message) {
+        try {
+            requests.execute(() -> handle(session, message));
+        } catch (RejectedExecutionException e) {
+            // Overloaded: the client sees an error now instead of the whole loop waiting for a free worker.
+            session.send(Message.ERR.withId(message.getId()));
+        }
     }
 
+    private void handle(Session session, Message message) {
+        Message response;
 
+        try {
+            response = messageHandler.handle(message);
+        } catch (RuntimeException e) {
+            // The client sees the failure as ERR; the connection and the other requests on it carry on.
+            response = Message.ERR;
+        }
+
+        if (response == null) {
+            response = Message.ACK;
+        }
+
+        session.send(response.withId(message.getId()));
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the connection is being thrown away.
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
 }
@@ -1,11 +1,27 @@
 package jamsesso.meshmap.server;
 
+import jamsesso.meshmap.Aggregator;
 import jamsesso.meshmap.CachedMeshMapCluster;
+import jamsesso.meshmap.EntryFilter;
+import jamsesso.meshmap.EntryProcessor;
+import jamsesso.meshmap.EntryProjection;
+import jamsesso.meshmap.HashRanges;
+import jamsesso.meshmap.Membership;
 import jamsesso.meshmap.MeshMapImpl;
 import jamsesso.meshmap.Message;
 import jamsesso.meshmap.MessageHandler;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Gzip;
+import jamsesso.meshmap.store.LocalStore;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class MessageHandlerImpl implements MessageHandler {
     public static final String TYPE_PUT = "PUT";
@@ -17,56 +33,128 @@ public class MessageHandlerImpl implements MessageHandler {
     public static final String TYPE_CONTAINS_KEY = "CONTAINS_KEY";
     public static final String TYPE_CONTAINS_VALUE = "CONTAINS_VALUE";
     public static final String TYPE_DUMP_ENTRIES = "DUMP_ENTRIES";
-    private final MeshMapImpl<Object, Object> delegate;
+    public static final String TYPE_GET_ALL = "GET_ALL";
+    public static final String TYPE_PUT_ALL = "PUT_ALL";
+    public static final String TYPE_REMOVE_ALL = "REMOVE_ALL";
+    public static final String TYPE_TRANSFER_RANGE = "TRANSFER_RANGE";
+    public static final String TYPE_TRANSFER_NEXT = "TRANSFER_NEXT";
+    public static final String TYPE_HANDOFF = "HANDOFF";
+    public static final String TYPE_HANDOFF_DONE = "HANDOFF_DONE";
+    public static final String TYPE_PUT_BACKUP = "PUT_BACKUP";
+    public static final String TYPE_REMOVE_BACKUP = "REMOVE_BACKUP";
+    public static final String TYPE_PUT_ALL_BACKUP = "PUT_ALL_BACKUP";
+    public static final String TYPE_REMOVE_ALL_BACKUP = "REMOVE_ALL_BACKUP";
+    public static final String TYPE_GET_TRACKED = "GET_TRACKED";
+    public static final String TYPE_INVALIDATE = "INVALIDATE";
+    public static final String TYPE_SCAN_OPEN = "SCAN_OPEN";
+    public static final String TYPE_SCAN_NEXT = "SCAN_NEXT";
+    public static final String TYPE_SCAN_CLOSE = "SCAN_CLOSE";
+    public static final String TYPE_AGGREGATE = "AGGREGATE";
+    public static final String TYPE_EXECUTE = "EXECUTE";
+    public static final String TYPE_EXECUTE_ALL = "EXECUTE_ALL";
+    public static final String TYPE_SIZE_REPORT = "SIZE_REPORT";
+    public static final String TYPE_GOSSIP = "GOSSIP";
+    private final MeshMapImpl<Object, Object> map;
+    private final LocalStore delegate;
+    private final Map<Object, Object> backups;
     private final CachedMeshMapCluster cluster;
+    private final CursorRegistry cursors = new CursorRegistry();
+    // Handoff ID -> batch sequence -> entries stored. Keyed by batch so that a retried batch is not counted twice.
+    private final ConcurrentMap<String, ConcurrentMap<Integer, Integer>> handoffs = new ConcurrentHashMap<>();
 
+    /**
+     * Requests are applied to the map's local store: a request that reached this node is meant for this node, and
+     * going through the map itself would route it (or broadcast it) all over again.
+     */
     public MessageHandlerImpl(MeshMapImpl<Object, Object> delegate, CachedMeshMapCluster cluster) {
-        this.delegate = delegate;
+        this.map = delegate;
+        this.delegate = delegate.getLocalStore();
+        this.backups = delegate.getBackupStore();
         this.cluster = cluster;
     }
 
     @Override
     public Message handle(Message message) {
         switch (message.getType()) {
+            case Message.TYPE_PING: {
+                return Message.ACK;
+            }
+
             case Message.TYPE_HI:
             case Message.TYPE_BYE: {
+                // Acknowledged before the replicas are copied, so the sender's broadcast does not wait on it.
                 cluster.clearCache();
+                map.rebalanceReplicasLater();
                 return Message.ACK;
             }
 
+            case TYPE_GOSSIP: {
+                // [node, up, incarnation]... answered with this node's view.
+                Membership membership = map.getMembership();
+
+                if (membership == null) {
+                    return Message.ACK;
+                }
+
+                return new Message(TYPE_GOSSIP, membership.receive(message.getPayload(Object[].class)), message.getCodec());
+            }
+
             case TYPE_GET: {
+                // With replica reads, this node may be asked for a key it only holds a backup of.
                 Object key = message.getPayload(Object.class);
-                return new Message(TYPE_GET, delegate.get(key));
+                return get(key, message.getCodec());
+            }
+
+            case TYPE_GET_TRACKED: {
+                // [key, reader node]; the reader is recorded before the read so a concurrent write invalidates it.
+                Object[] request = message.getPayload(Object[].class);
+                map.trackReader(request[0], Node.from((String) request[1]));
+                return get(request[0], message.getCodec());
+            }
+
+            case TYPE_INVALIDATE: {
+                map.invalidateNearCacheOf(Arrays.asList(message.getPayload(Object[].class)));
+                return Message.ACK;
             }
 
             case TYPE_PUT: {
                 MeshMapImpl.Entry entry = message.getPayload(MeshMapImpl.Entry.class);
                 delegate.put(entry.getKey(), entry.getValue());
+                map.invalidateReaders(entry.getKey());
                 return Message.ACK;
             }
 
             case TYPE_REMOVE: {
                 Object key = message.getPayload(Object.class);
-                return new Message(TYPE_REMOVE, delegate.remove(key));
+                Message response = new Message(TYPE_REMOVE, delegate.remove(key), message.getCodec());
+                map.invalidateReaders(key);
+                return response;
             }
 
             case TYPE_CLEAR: {
-                delegate.clear();
+                map.clearLocal();
                 return Message.ACK;
             }
 
             case TYPE_KEY_SET: {
                 Object[] keys = delegate.keySet().toArray();
-                return new Message(TYPE_KEY_SET, keys);
+                return new Message(TYPE_KEY_SET, keys, message.getCodec());
             }
 
             case TYPE_SIZE: {
                 return new Message(TYPE_SIZE, ByteBuffer.allocate(4).putInt(delegate.size()).array());
             }
 
+            case TYPE_SIZE_REPORT: {
+                // [node, entry count]
+                Object[] report = message.getPayload(Object[].class);
+                map.recordSize(Node.from((String) report[0]), (Integer) report[1]);
+                return Message.ACK;
+            }
+
             case TYPE_CONTAINS_KEY: {
                 Object key = message.getPayload(Object.class);
-                return delegate.containsKey(key) ? Message.YES : Message.NO;
+                return delegate.containsKey(key) || backups.containsKey(key) ? Message.YES : Message.NO;
             }
 
             case TYPE_CONTAINS_VALUE: {
@@ -78,7 +166,159 @@ public class MessageHandlerImpl implements MessageHandler {
                 MeshMapImpl.Entry[] entries = delegate.entrySet().stream()
                         .map(entry -> new MeshMapImpl.Entry(entry.getKey(), entry.getValue())).toArray(MeshMapImpl.Entry[]::new);
 
-                return new Message(TYPE_DUMP_ENTRIES, entries);
+                return new Message(TYPE_DUMP_ENTRIES, entries, message.getCodec());
+            }
+
+            case TYPE_GET_ALL: {
+                Object[] keys = message.getPayload(Object[].class);
+                List<MeshMapImpl.Entry> entries = new ArrayList<>(keys.length);
+
+                for (Object key : keys) {
+                    Object value = delegate.get(key);
+
+                    if (value != null) {
+                        entries.add(new MeshMapImpl.Entry(key, value));
+                    }
+                }
+
+                return new Message(TYPE_GET_ALL, entries.toArray(new MeshMapImpl.Entry[0]), message.getCodec());
+            }
+
+            case TYPE_PUT_ALL: {
+                MeshMapImpl.Entry[] entries = message.getPayload(MeshMapImpl.Entry[].class);
+                List<Object> keys = new ArrayList<>(entries.length);
+
+                for (MeshMapImpl.Entry entry : entries) {
+                    delegate.put(entry.getKey(), entry.getValue());
+                    keys.add(entry.getKey());
+                }
+
+                map.invalidateReadersOf(keys);
+                return Message.ACK;
+            }
+
+            case TYPE_REMOVE_ALL: {
+                Object[] keys = message.getPayload(Object[].class);
+
+                for (Object key : keys) {
+                    delegate.remove(key);
+                }
+
+                map.invalidateReadersOf(Arrays.asList(keys));
+                return Message.ACK;
+            }
+
+            case TYPE_PUT_BACKUP: {
+                MeshMapImpl.Entry entry = message.getPayload(MeshMapImpl.Entry.class);
+                backups.put(entry.getKey(), entry.getValue());
+                return Message.ACK;
+            }
+
+            case TYPE_REMOVE_BACKUP: {
+                backups.remove(message.getPayload(Object.class));
+                return Message.ACK;
+            }
+
+            case TYPE_PUT_ALL_BACKUP: {
+                for (MeshMapImpl.Entry entry : message.getPayload(MeshMapImpl.Entry[].class)) {
+                    backups.put(entry.getKey(), entry.getValue());
+                }
+
+                return Message.ACK;
+            }
+
+            case TYPE_REMOVE_ALL_BACKUP: {
+                for (Object key : message.getPayload(Object[].class)) {
+                    backups.remove(key);
+                }
+
+                return Message.ACK;
+            }
+
+            case TYPE_TRANSFER_RANGE: {
+                // [chunk size, start, end, start, end, ...]
+                Object[] request = message.getPayload(Object[].class);
+                HashRanges ranges = HashRanges.fromPayload(request, 1);
+                Cursor cursor = new RangeTransferCursor(delegate, ranges, cluster.getRoutingTable().getHasher());
+                return new Message(TYPE_TRANSFER_RANGE, cursors.open(cursor, (Integer) request[0]).toPayload(), message.getCodec());
+            }
+
+            case TYPE_TRANSFER_NEXT: {
+                // [cursor ID, sequence of the chunk the client has stored]
+                Object[] request = message.getPayload(Object[].class);
+                CursorRegistry.Chunk chunk = cursors.next((Integer) request[0], (Integer) request[1]);
+                return new Message(TYPE_TRANSFER_RANGE, chunk.toPayload(), message.getCodec());
+            }
+
+            case TYPE_SCAN_OPEN: {
+                // [chunk size, keys only, filter or null, projection or null]
+                Object[] request = message.getPayload(Object[].class);
+                Cursor cursor = new ScanCursor(delegate, (Boolean) request[1], (EntryFilter<?, ?>) request[2],
+                        (EntryProjection<?, ?, ?>) request[3]);
+                return new Message(TYPE_SCAN_OPEN, cursors.open(cursor, (Integer) request[0]).toPayload(), message.getCodec());
+            }
+
+            case TYPE_SCAN_NEXT: {
+                // [cursor ID, sequence of the chunk the client has consumed]
+                Object[] request = message.getPayload(Object[].class);
+                CursorRegistry.Chunk chunk = cursors.next((Integer) request[0], (Integer) request[1]);
+                return new Message(TYPE_SCAN_OPEN, chunk.toPayload(), message.getCodec());
+            }
+
+            case TYPE_SCAN_CLOSE: {
+                cursors.close(message.getPayload(Integer.class));
+                return Message.ACK;
+            }
+
+            case TYPE_AGGREGATE: {
+                Aggregator<?, ?, ?, ?> aggregator = message.getPayload(Aggregator.class);
+                return new Message(TYPE_AGGREGATE, map.aggregateLocal(aggregator), message.getCodec());
+            }
+
+            case TYPE_EXECUTE: {
+                // [key, processor]
+                Object[] request = message.getPayload(Object[].class);
+                Object result = map.processLocal(request[0], (EntryProcessor<?, ?, ?>) request[1]);
+                return new Message(TYPE_EXECUTE, result, message.getCodec());
+            }
+
+            case TYPE_EXECUTE_ALL: {
+                // [processor, keys]; answers the keys whose processor returned a result.
+                Object[] request = message.getPayload(Object[].class);
+                EntryProcessor<?, ?, ?> processor = (EntryProcessor<?, ?, ?>) request[0];
+                List<MeshMapImpl.Entry> results = new ArrayList<>();
+
+                for (Object key : (Object[]) request[1]) {
+                    Object result = map.processLocal(key, processor);
+
+                    if (result != null) {
+                        results.add(new MeshMapImpl.Entry(key, result));
+                    }
+                }
+
+                return new Message(TYPE_EXECUTE_ALL, results.toArray(new MeshMapImpl.Entry[0]), message.getCodec());
+            }
+
+            case TYPE_HANDOFF: {
+                // [handoff ID, batch sequence, GZIP of the encoded entry array]
+                Object[] batch = message.getPayload(Object[].class);
+                byte[] encoded = Gzip.decompress((byte[]) batch[2]);
+                MeshMapImpl.Entry[] entries = (MeshMapImpl.Entry[]) message.getCodec().decode(encoded);
+
+                for (MeshMapImpl.Entry entry : entries) {
+                    delegate.put(entry.getKey(), entry.getValue());
+                }
+
+                handoffs.computeIfAbsent((String) batch[0], id -> new ConcurrentHashMap<>()).put((Integer) batch[1], entries.length);
+                return Message.ACK;
+            }
+
+            case TYPE_HANDOFF_DONE: {
+                // [handoff ID, number of entries sent]; YES if exactly that many arrived.
+                Object[] done = message.getPayload(Object[].class);
+                Map<Integer, Integer> batches = handoffs.remove((String) done[0]);
+                long received = batches == null ? 0 : batches.values().stream().mapToLong(Integer::longValue).sum();
+                return received == (Long) done[1] ? Message.YES : Message.NO;
             }
 
             default: {
@@ -86,4 +326,15 @@ public class MessageHandlerImpl implements MessageHandler {
             }
         }
     }
+
+    private Message get(Object key, Codec codec) {
+        // A store that keeps values encoded hands them over as they are.
+        byte[] encoded = delegate.getEncoded(key, codec);
+
+        if (encoded != null) {
+            return Message.ofEncoded(TYPE_GET, codec, encoded);
+        }
+
+        return new Message(TYPE_GET, backups.get(key), codec);
+    }
 }
@@ -0,0 +1,52 @@
+package jamsesso.meshmap.server;
+
+import jamsesso.meshmap.HashRanges;
+import jamsesso.meshmap.KeyHasher;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the local entries whose keys hash into the given ranges, for a node that has taken those ranges over.
+ * Asking for the next chunk acknowledges the previous one, and only then are its entries removed from this node; an
+ * entry overwritten in the meantime is left in place.
+ */
+class RangeTransferCursor implements Cursor {
+    private static final MeshMapImpl.Entry[] NONE = new MeshMapImpl.Entry[0];
+
+    private final Map<Object, Object> store;
+    private final HashRanges ranges;
+    private final KeyHasher hasher;
+    private final Iterator<Map.Entry<Object, Object>> iterator;
+    private MeshMapImpl.Entry[] sent = NONE;
+
+    RangeTransferCursor(Map<Object, Object> store, HashRanges ranges, KeyHasher hasher) {
+        this.store = store;
+        this.ranges = ranges;
+        this.hasher = hasher;
+        this.iterator = store.entrySet().iterator();
+    }
+
+    @Override
+    public MeshMapImpl.Entry[] next(int max) {
+        for (MeshMapImpl.Entry entry : sent) {
+            store.remove(entry.getKey(), entry.getValue());
+        }
+
+        List<MeshMapImpl.Entry> chunk = new ArrayList<>(Math.min(max, 1024));
+
+        while (chunk.size() < max && iterator.hasNext()) {
+            Map.Entry<Object, Object> entry = iterator.next();
+
+            if (ranges.contains(hasher.hash(entry.getKey()))) {
+                chunk.add(new MeshMapImpl.Entry(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        sent = chunk.toArray(NONE);
+        return sent;
+    }
+}
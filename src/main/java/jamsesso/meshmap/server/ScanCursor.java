@@ -0,0 +1,56 @@
+package jamsesso.meshmap.server;
+
+import jamsesso.meshmap.EntryFilter;
+import jamsesso.meshmap.EntryProjection;
+import jamsesso.meshmap.MeshMapImpl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages through the entries of a store for a client iterating over the map, keeping only those that match the
+ * filter and sending the projection of their values. The entries are read through the store's weakly consistent
+ * iterator, so a scan sees each entry that exists for its whole duration exactly once, and may or may not see ones
+ * written while it runs.
+ */
+@SuppressWarnings("unchecked")
+public class ScanCursor implements Cursor {
+    private static final MeshMapImpl.Entry[] NONE = new MeshMapImpl.Entry[0];
+
+    private final Iterator<Map.Entry<Object, Object>> iterator;
+    private final boolean keysOnly;
+    private final EntryFilter<Object, Object> filter;
+    private final EntryProjection<Object, Object, Object> projection;
+
+    /**
+     * @param keysOnly   leave the values out of the chunks, for iterating over the keys
+     * @param filter     entries to keep, or null for all of them
+     * @param projection what to send in place of each value, or null for the value itself
+     */
+    public ScanCursor(Map<Object, Object> store, boolean keysOnly, EntryFilter<?, ?> filter, EntryProjection<?, ?, ?> projection) {
+        this.iterator = store.entrySet().iterator();
+        this.keysOnly = keysOnly;
+        this.filter = (EntryFilter<Object, Object>) filter;
+        this.projection = (EntryProjection<Object, Object, Object>) projection;
+    }
+
+    @Override
+    public MeshMapImpl.Entry[] next(int max) {
+        List<MeshMapImpl.Entry> chunk = new ArrayList<>(Math.min(max, 1024));
+
+        while (chunk.size() < max && iterator.hasNext()) {
+            Map.Entry<Object, Object> entry = iterator.next();
+            Object key = entry.getKey();
+            Object value = entry.getValue();
+
+            if (filter == null || filter.test(key, value)) {
+                Object sent = keysOnly ? null : projection == null ? value : projection.apply(key, value);
+                chunk.add(new MeshMapImpl.Entry(key, sent));
+            }
+        }
+
+        return chunk.toArray(NONE);
+    }
+}
@@ -0,0 +1,124 @@
+package jamsesso.meshmap.server;
+
+import jamsesso.meshmap.BufferPool;
+import jamsesso.meshmap.FrameBuffer;
+import jamsesso.meshmap.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The server side of one client connection. Reads and writes only ever happen on the owning {@link IoLoop} thread;
+ * workers hand their responses over through {@link #send(Message)}.
+ *
+ * Incoming bytes land in a pooled direct buffer. Responses are written with gathering writes of a pooled header
+ * buffer and the payload array, so no frame is ever copied into an intermediate buffer.
+ */
+class Session {
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final Queue<Message> writeQueue = new ConcurrentLinkedQueue<>();
+    private final FrameBuffer frames = new FrameBuffer();
+    private final ByteBuffer header = BufferPool.HEADERS.acquire();
+    private final ByteBuffer[] pendingWrite = new ByteBuffer[2];
+    private SelectionKey key;
+    private boolean closed;
+
+    Session(SocketChannel channel, IoLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    void register(SelectionKey key) {
+        this.key = key;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Reads what is available and hands every complete frame to the consumer.
+     *
+     * @return false once the client has closed the connection.
+     */
+    boolean read(MessageConsumer consumer) throws IOException {
+        if (frames.readFrom(channel) < 0) {
+            return false;
+        }
+
+        frames.drain(message -> consumer.accept(this, message));
+        return true;
+    }
+
+    /**
+     * Queues a response. Safe to call from any thread.
+     */
+    void send(Message response) {
+        writeQueue.add(response);
+        loop.flushLater(this);
+    }
+
+    /**
+     * Writes as much of the queue as the socket takes and only asks for OP_WRITE when it could not take it all.
+     */
+    void flush() throws IOException {
+        while (true) {
+            if (pendingWrite[0] == null) {
+                Message message = writeQueue.poll();
+
+                if (message == null) {
+                    break;
+                }
+
+                header.clear();
+                message.writeHeader(header);
+                header.flip();
+                pendingWrite[0] = header;
+                pendingWrite[1] = ByteBuffer.wrap(message.getPayload());
+            }
+
+            channel.write(pendingWrite);
+
+            if (pendingWrite[0].hasRemaining() || pendingWrite[1].hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+
+            pendingWrite[0] = null;
+            pendingWrite[1] = null;
+        }
+
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the client is gone.
+        }
+
+        frames.close();
+        BufferPool.HEADERS.release(header);
+    }
+
+    @FunctionalInterface
+    interface MessageConsumer {
+        void accept(Session session, Message message);
+    }
+}
@@ -0,0 +1,11 @@
+package jamsesso.meshmap.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps entries as objects on the Java heap. The fastest store for small data sets; with many gigabytes per node
+ * the garbage collector has to trace all of it.
+ */
+public class HeapLocalStore extends ConcurrentHashMap<Object, Object> implements LocalStore {
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,32 @@
+package jamsesso.meshmap.store;
+
+import jamsesso.meshmap.codec.Codec;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Where a node keeps the entries it owns. Everything the node does with its entries goes through the
+ * {@link ConcurrentMap} interface, so any thread-safe map works; implementations differ in where the data lives.
+ * Null keys and values are not allowed.
+ */
+public interface LocalStore extends ConcurrentMap<Object, Object>, AutoCloseable {
+    /**
+     * The value for the key encoded with the given codec, or null if there is none. A store that keeps values
+     * encoded returns them as they are, so the value can be sent without being decoded and encoded again.
+     */
+    default byte[] getEncoded(Object key, Codec codec) {
+        Object value = get(key);
+        return value == null ? null : codec.encode(value);
+    }
+
+    /**
+     * Bytes this store holds outside the Java heap.
+     */
+    default long getOffHeapBytes() {
+        return 0;
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,248 @@
+package jamsesso.meshmap.store;
+
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Codecs;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps entries in an H2 MVStore file so that they survive a restart. Keys and values are stored encoded with the
+ * codec, so keys are compared by their encoded bytes (as in {@link OffHeapLocalStore}) and
+ * {@link #getEncoded(Object, Codec)} with the same codec returns the stored bytes.
+ *
+ * Writes go to the store's in-memory pages and are written to the file by MVStore's background thread every
+ * {@code writeDelay} milliseconds (write-behind), so up to that much is lost if the process dies. With a delay of 0,
+ * every write is committed before it returns. The same background thread rewrites the file when less than
+ * {@code compactFillRate} percent of it holds live data.
+ *
+ * The store also remembers a node ID (see {@link #getNodeId()}). A node restarted with the same ID and file takes the
+ * same places on the ring and already has its entries, so it only has to pull what was written elsewhere while it
+ * was away.
+ */
+public class MVStoreLocalStore extends AbstractMap<Object, Object> implements LocalStore {
+    public static final int DEFAULT_WRITE_DELAY = 1000;
+    public static final int DEFAULT_COMPACT_FILL_RATE = 50;
+
+    private static final String ENTRIES = "entries";
+    private static final String META = "meta";
+    private static final String NODE_ID = "nodeId";
+    private static final int COMPACT_WRITE_BYTES = 16 * 1024 * 1024;
+
+    private final Codec codec;
+    private final MVStore store;
+    private final MVMap<byte[], byte[]> entries;
+    private final MVMap<String, String> meta;
+    private final boolean commitEveryWrite;
+    private final int compactFillRate;
+    private final Set<Map.Entry<Object, Object>> entrySet = new EntrySet();
+
+    public MVStoreLocalStore(File file) {
+        this(file, DEFAULT_WRITE_DELAY);
+    }
+
+    public MVStoreLocalStore(File file, int writeDelay) {
+        this(file, Codecs.getDefault(), writeDelay, DEFAULT_COMPACT_FILL_RATE);
+    }
+
+    /**
+     * @param file            the store file, created if it does not exist
+     * @param codec           encodes keys and values; it must stay the same across restarts
+     * @param writeDelay      milliseconds between background commits, or 0 to commit every write
+     * @param compactFillRate rewrite the file when less than this percentage of it is live data, or 0 to never
+     */
+    public MVStoreLocalStore(File file, Codec codec, int writeDelay, int compactFillRate) {
+        if (writeDelay < 0) {
+            throw new IllegalArgumentException("Write delay must not be negative");
+        }
+
+        MVStore.Builder builder = new MVStore.Builder()
+                .fileName(file.getAbsolutePath())
+                .autoCompactFillRate(compactFillRate);
+
+        if (writeDelay == 0) {
+            builder.autoCommitDisabled();
+        }
+
+        this.codec = codec;
+        this.store = builder.open();
+        this.entries = store.openMap(ENTRIES);
+        this.meta = store.openMap(META);
+        this.commitEveryWrite = writeDelay == 0;
+        this.compactFillRate = compactFillRate;
+
+        if (writeDelay > 0) {
+            store.setAutoCommitDelay(writeDelay);
+        }
+    }
+
+    /**
+     * The ID of the node this store belongs to, generated and saved the first time it is asked for.
+     */
+    public synchronized UUID getNodeId() {
+        String id = meta.get(NODE_ID);
+
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            meta.put(NODE_ID, id);
+            store.commit();
+        }
+
+        return UUID.fromString(id);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return decode(entries.get(codec.encode(key)));
+    }
+
+    @Override
+    public byte[] getEncoded(Object key, Codec codec) {
+        if (codec.getId() != this.codec.getId()) {
+            return LocalStore.super.getEncoded(key, codec);
+        }
+
+        return entries.get(codec.encode(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return entries.containsKey(codec.encode(key));
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        Objects.requireNonNull(value);
+        return decode(committed(entries.put(codec.encode(key), codec.encode(value))));
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        Objects.requireNonNull(value);
+        return decode(committed(entries.putIfAbsent(codec.encode(key), codec.encode(value))));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return decode(committed(entries.remove(codec.encode(key))));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return value != null && committed(entries.remove(codec.encode(key), codec.encode(value)));
+    }
+
+    @Override
+    public Object replace(Object key, Object value) {
+        Objects.requireNonNull(value);
+        return decode(committed(entries.replace(codec.encode(key), codec.encode(value))));
+    }
+
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        return committed(entries.replace(codec.encode(key), codec.encode(oldValue), codec.encode(newValue)));
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(entries.sizeAsLong(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        committed(null);
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Rewrites the least used parts of the file now instead of waiting for the background thread.
+     */
+    public void compact() {
+        store.compact(compactFillRate, COMPACT_WRITE_BYTES);
+    }
+
+    /**
+     * Size of the store file.
+     */
+    public long getFileBytes() {
+        return store.getFileStore().size();
+    }
+
+    /**
+     * Writes anything not yet committed and closes the file.
+     */
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private <T> T committed(T result) {
+        if (commitEveryWrite) {
+            store.commit();
+        }
+
+        return result;
+    }
+
+    private Object decode(byte[] bytes) {
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+            Iterator<Map.Entry<byte[], byte[]>> stored = entries.entrySet().iterator();
+
+            return new Iterator<Map.Entry<Object, Object>>() {
+                private byte[] last;
+
+                @Override
+                public boolean hasNext() {
+                    return stored.hasNext();
+                }
+
+                @Override
+                public Map.Entry<Object, Object> next() {
+                    Map.Entry<byte[], byte[]> entry = stored.next();
+                    last = entry.getKey();
+                    return new SimpleImmutableEntry<>(codec.decode(entry.getKey()), codec.decode(entry.getValue()));
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+
+                    committed(entries.remove(last));
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return MVStoreLocalStore.this.size();
+        }
+
+        @Override
+        public void clear() {
+            MVStoreLocalStore.this.clear();
+        }
+    }
+}
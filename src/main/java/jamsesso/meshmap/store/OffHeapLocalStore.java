@@ -0,0 +1,624 @@
+package jamsesso.meshmap.store;
+
+import jamsesso.meshmap.KeyHashers;
+import jamsesso.meshmap.codec.Codec;
+import jamsesso.meshmap.codec.Codecs;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps entries encoded in direct memory, outside the Java heap, so the garbage collector never has to trace them.
+ * The store is split into stripes, each with its own lock. A stripe appends records ({@code key length, value
+ * length, key, value}) to direct buffer segments and finds them through an open addressing index of primitive arrays
+ * (key hash and record address per slot). Overwritten and removed records are left in place until they make up most
+ * of a stripe, and then its live records are copied to fresh segments.
+ *
+ * Keys are compared by their encoded bytes: two keys are the same key when the codec encodes them the same way, which
+ * holds for strings, numbers and the other types with a compact encoding. Values are decoded on every read, except
+ * through {@link #getEncoded(Object, Codec)} with this store's codec. Iterators are weakly consistent: they may miss
+ * or repeat entries moved by a concurrent resize.
+ */
+public class OffHeapLocalStore extends AbstractMap<Object, Object> implements LocalStore {
+    public static final int DEFAULT_STRIPES = 16;
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Codec codec;
+    private final int segmentSize;
+    private final Stripe[] stripes;
+    private final Set<Map.Entry<Object, Object>> entrySet = new EntrySet();
+
+    public OffHeapLocalStore() {
+        this(Codecs.getDefault(), DEFAULT_STRIPES, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param codec       encodes keys and values; {@link #getEncoded(Object, Codec)} with this codec needs no decoding
+     * @param stripes     number of independently locked parts, a power of two up to 256
+     * @param segmentSize size of each direct buffer a stripe allocates (larger records get a buffer of their own)
+     */
+    public OffHeapLocalStore(Codec codec, int stripes, int segmentSize) {
+        if (stripes < 1 || stripes > 256 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Stripes must be a power of two between 1 and 256");
+        }
+
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.stripes = new Stripe[stripes];
+
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return decode(stripeFor(hash).get(encodedKey, hash));
+    }
+
+    @Override
+    public byte[] getEncoded(Object key, Codec codec) {
+        if (codec.getId() != this.codec.getId()) {
+            return LocalStore.super.getEncoded(key, codec);
+        }
+
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return stripeFor(hash).get(encodedKey, hash);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return stripeFor(hash).get(encodedKey, hash) != null;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        Objects.requireNonNull(value);
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return decode(stripeFor(hash).put(encodedKey, hash, codec.encode(value), false));
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        Objects.requireNonNull(value);
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return decode(stripeFor(hash).put(encodedKey, hash, codec.encode(value), true));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return decode(stripeFor(hash).remove(encodedKey, hash, null));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (value == null) {
+            return false;
+        }
+
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return stripeFor(hash).remove(encodedKey, hash, codec.encode(value)) != null;
+    }
+
+    @Override
+    public Object replace(Object key, Object value) {
+        Objects.requireNonNull(value);
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return decode(stripeFor(hash).replace(encodedKey, hash, null, codec.encode(value)));
+    }
+
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        byte[] encodedKey = codec.encode(key);
+        int hash = hash(encodedKey);
+        return stripeFor(hash).replace(encodedKey, hash, codec.encode(oldValue), codec.encode(newValue)) != null;
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return entrySet;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        long bytes = 0;
+
+        for (Stripe stripe : stripes) {
+            bytes += stripe.allocatedBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Drops every entry. The direct buffers are freed once the garbage collector reclaims them.
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static int hash(byte[] encodedKey) {
+        return KeyHashers.murmur3(encodedKey, 0);
+    }
+
+    private Stripe stripeFor(int hash) {
+        // The index uses the low bits of the hash, so pick the stripe with the high ones.
+        return stripes[(hash >>> 24) & (stripes.length - 1)];
+    }
+
+    private Object decode(byte[] bytes) {
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    private final class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private long[] addresses = new long[INITIAL_CAPACITY];
+        private int size;
+        private int occupied;
+        private long liveBytes;
+        private long garbageBytes;
+        private long allocatedBytes;
+
+        byte[] get(byte[] key, int hash) {
+            lock.readLock().lock();
+
+            try {
+                int slot = find(key, hash);
+                return slot < 0 ? null : readValue(addresses[slot]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        byte[] put(byte[] key, int hash, byte[] value, boolean onlyIfAbsent) {
+            lock.writeLock().lock();
+
+            try {
+                int slot = find(key, hash);
+
+                if (slot < 0) {
+                    insert(key, hash, value);
+                    return null;
+                }
+
+                byte[] previous = readValue(addresses[slot]);
+
+                if (!onlyIfAbsent) {
+                    release(addresses[slot]);
+                    addresses[slot] = append(key, value);
+                    compactIfWasteful();
+                }
+
+                return previous;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Removes the key if it is present (and, when {@code expected} is given, holds exactly that value). Returns
+         * the removed value, or null if nothing was removed.
+         */
+        byte[] remove(byte[] key, int hash, byte[] expected) {
+            lock.writeLock().lock();
+
+            try {
+                int slot = find(key, hash);
+
+                if (slot < 0) {
+                    return null;
+                }
+
+                byte[] previous = readValue(addresses[slot]);
+
+                if (expected != null && !Arrays.equals(previous, expected)) {
+                    return null;
+                }
+
+                release(addresses[slot]);
+                addresses[slot] = DELETED;
+                size--;
+                compactIfWasteful();
+                return previous;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Replaces the value if the key is present (and, when {@code expected} is given, holds exactly that value).
+         * Returns the replaced value, or null if nothing was replaced.
+         */
+        byte[] replace(byte[] key, int hash, byte[] expected, byte[] value) {
+            lock.writeLock().lock();
+
+            try {
+                int slot = find(key, hash);
+
+                if (slot < 0) {
+                    return null;
+                }
+
+                byte[] previous = readValue(addresses[slot]);
+
+                if (expected != null && !Arrays.equals(previous, expected)) {
+                    return null;
+                }
+
+                release(addresses[slot]);
+                addresses[slot] = append(key, value);
+                compactIfWasteful();
+                return previous;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long allocatedBytes() {
+            lock.readLock().lock();
+
+            try {
+                return allocatedBytes;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+
+            try {
+                segments.clear();
+                hashes = new int[INITIAL_CAPACITY];
+                addresses = new long[INITIAL_CAPACITY];
+                size = 0;
+                occupied = 0;
+                liveBytes = 0;
+                garbageBytes = 0;
+                allocatedBytes = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * The first live entry at or after {@code slot}, or null if there is none; {@code next[0]} is set to the slot
+         * after it.
+         */
+        Map.Entry<Object, Object> entryFrom(int slot, int[] next) {
+            lock.readLock().lock();
+
+            try {
+                for (int i = slot; i < addresses.length; i++) {
+                    long address = addresses[i];
+
+                    if (address != EMPTY && address != DELETED) {
+                        next[0] = i + 1;
+                        return new SimpleImmutableEntry<>(codec.decode(readKey(address)), codec.decode(readValue(address)));
+                    }
+                }
+
+                return null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int find(byte[] key, int hash) {
+            int mask = addresses.length - 1;
+
+            for (int i = hash & mask, probes = 0; probes < addresses.length; i = (i + 1) & mask, probes++) {
+                long address = addresses[i];
+
+                if (address == EMPTY) {
+                    return -1;
+                }
+
+                if (address != DELETED && hashes[i] == hash && keyEquals(address, key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private void insert(byte[] key, int hash, byte[] value) {
+            // Linear probing degrades quickly past ~60% occupancy (removed slots count too, until a rehash).
+            if ((occupied + 1) * 10L > addresses.length * 6L) {
+                rehash();
+            }
+
+            int mask = addresses.length - 1;
+            int slot = hash & mask;
+
+            while (addresses[slot] != EMPTY && addresses[slot] != DELETED) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (addresses[slot] == EMPTY) {
+                occupied++;
+            }
+
+            hashes[slot] = hash;
+            addresses[slot] = append(key, value);
+            size++;
+        }
+
+        private void rehash() {
+            int capacity = INITIAL_CAPACITY;
+
+            while ((size + 1) * 10L > capacity * 3L) {
+                capacity <<= 1;
+            }
+
+            int[] oldHashes = hashes;
+            long[] oldAddresses = addresses;
+            hashes = new int[capacity];
+            addresses = new long[capacity];
+            occupied = size;
+
+            int mask = capacity - 1;
+
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != EMPTY && oldAddresses[i] != DELETED) {
+                    int slot = oldHashes[i] & mask;
+
+                    while (addresses[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    hashes[slot] = oldHashes[i];
+                    addresses[slot] = oldAddresses[i];
+                }
+            }
+        }
+
+        private long append(byte[] key, byte[] value) {
+            int recordSize = RECORD_HEADER + key.length + value.length;
+            ByteBuffer segment = writableSegment(recordSize);
+            int offset = segment.position();
+
+            segment.putInt(key.length).putInt(value.length).put(key).put(value);
+            liveBytes += recordSize;
+            return address(segments.size() - 1, offset);
+        }
+
+        private ByteBuffer writableSegment(int recordSize) {
+            ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+            if (segment == null || segment.remaining() < recordSize) {
+                segment = ByteBuffer.allocateDirect(Math.max(segmentSize, recordSize));
+                segments.add(segment);
+                allocatedBytes += segment.capacity();
+            }
+
+            return segment;
+        }
+
+        private void release(long address) {
+            int recordSize = recordSize(address);
+            liveBytes -= recordSize;
+            garbageBytes += recordSize;
+        }
+
+        private void compactIfWasteful() {
+            if (garbageBytes > segmentSize && garbageBytes > liveBytes) {
+                compact();
+            }
+        }
+
+        /**
+         * Copies the live records to new segments, dropping the space of overwritten and removed ones.
+         */
+        private void compact() {
+            List<ByteBuffer> old = new ArrayList<>(segments);
+            segments.clear();
+            liveBytes = 0;
+            garbageBytes = 0;
+            allocatedBytes = 0;
+
+            for (int i = 0; i < addresses.length; i++) {
+                long address = addresses[i];
+
+                if (address != EMPTY && address != DELETED) {
+                    ByteBuffer source = old.get(segmentOf(address)).duplicate();
+                    int offset = offsetOf(address);
+                    int recordSize = RECORD_HEADER + source.getInt(offset) + source.getInt(offset + 4);
+
+                    source.limit(offset + recordSize).position(offset);
+                    ByteBuffer segment = writableSegment(recordSize);
+                    int newOffset = segment.position();
+                    segment.put(source);
+                    liveBytes += recordSize;
+                    addresses[i] = address(segments.size() - 1, newOffset);
+                }
+            }
+        }
+
+        private boolean keyEquals(long address, byte[] key) {
+            ByteBuffer segment = segments.get(segmentOf(address));
+            int offset = offsetOf(address);
+
+            if (segment.getInt(offset) != key.length) {
+                return false;
+            }
+
+            for (int i = 0; i < key.length; i++) {
+                if (segment.get(offset + RECORD_HEADER + i) != key[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private byte[] readKey(long address) {
+            ByteBuffer segment = segments.get(segmentOf(address));
+            int offset = offsetOf(address);
+            return read(segment, offset + RECORD_HEADER, segment.getInt(offset));
+        }
+
+        private byte[] readValue(long address) {
+            ByteBuffer segment = segments.get(segmentOf(address));
+            int offset = offsetOf(address);
+            return read(segment, offset + RECORD_HEADER + segment.getInt(offset), segment.getInt(offset + 4));
+        }
+
+        private int recordSize(long address) {
+            ByteBuffer segment = segments.get(segmentOf(address));
+            int offset = offsetOf(address);
+            return RECORD_HEADER + segment.getInt(offset) + segment.getInt(offset + 4);
+        }
+
+        private byte[] read(ByteBuffer segment, int offset, int length) {
+            // Readers share the segment, so read through a view rather than moving the segment's own position.
+            byte[] bytes = new byte[length];
+            ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.get(bytes);
+            return bytes;
+        }
+    }
+
+    private static long address(int segment, int offset) {
+        // Segment numbers start at 1 so that no address is EMPTY (0) or DELETED (-1).
+        return ((long) (segment + 1) << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32) - 1;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return OffHeapLocalStore.this.size();
+        }
+
+        @Override
+        public void clear() {
+            OffHeapLocalStore.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+        private final int[] slot = new int[1];
+        private int stripe;
+        private Map.Entry<Object, Object> next;
+        private Map.Entry<Object, Object> last;
+
+        EntryIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Object, Object> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+
+            OffHeapLocalStore.this.remove(last.getKey());
+            last = null;
+        }
+
+        private void advance() {
+            while (stripe < stripes.length) {
+                next = stripes[stripe].entryFrom(slot[0], slot);
+
+                if (next != null) {
+                    return;
+                }
+
+                stripe++;
+                slot[0] = 0;
+            }
+
+            next = null;
+        }
+    }
+}